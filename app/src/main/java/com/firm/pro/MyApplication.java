@@ -8,38 +8,98 @@ import android.util.Log;
 import android.webkit.WebView;
 
 import com.anythink.core.api.ATSDK;
+import com.firm.pro.constants.AppConstants;
+import com.firm.pro.db.AppDatabase;
+import com.firm.pro.utils.ForegroundTracker;
+import com.firm.pro.utils.ImageLoader;
+import com.firm.pro.utils.MediaCache;
 import com.firm.pro.utils.OkHttpUtil;
 import com.firm.pro.utils.PlacementIdUtil;
+import com.firm.pro.utils.ProcessUtils;
 import com.firm.pro.utils.SPUtils;
+import com.firm.pro.utils.StartupRunner;
+import com.firm.pro.utils.StartupTask;
 
 public class MyApplication extends Application {
 
     private static final String TAG = "MyApplication";
     private static MyApplication sInstance;
+    // 是否为主进程，广告SDK的子进程只执行必要的初始化
+    private boolean mMainProcess;
     @Override
     public void onCreate() {
         super.onCreate();
         sInstance = this; // 初始化单例
+        // 判断当前进程是否为应用的主进程（通过包名对比）
+        mMainProcess = ProcessUtils.isMainProcess(this);
 
         //针对 Android 9（API 28）及以上版本中 WebView 的一个关键配置，主要用于解决多进程场景下 WebView 可能出现的崩溃问题。
         //Android 9及以上必须设置 判断当前设备系统版本是否为 Android 9（API 28）及以上
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-            // 获取当前进程的名称
-            String processName = getProcessName();
-            // 判断当前进程是否为应用的主进程（通过包名对比）
-            if (!getPackageName().equals(processName)) {
-                // 为非主进程的 WebView 设置独立的数据目录后缀
-                WebView.setDataDirectorySuffix(processName);
-            }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && !mMainProcess) {
+            // 为非主进程的 WebView 设置独立的数据目录后缀
+            WebView.setDataDirectorySuffix(ProcessUtils.getProcessName());
         }
 
-        // 初始化操作（按实际项目需求添加）
-        initUtilClass();  // 初始化工具类
-        initTaku();       // 初始化Taku
+        // 全局异常捕获在启动任务开始前同步安装，覆盖后台线程中执行的初始化过程（所有进程）
+        initExceptionHandler();
+
+        // 初始化操作（按实际项目需求添加），按依赖关系并行执行，各任务耗时见日志Tag：StartupRunner
+        // 子进程只执行标记了inAllProcesses的任务，其余工具类和广告SDK只在主进程初始化
 //        initStrictMode();       // 开发环境启用严格模式
-        initExceptionHandler(); // 初始化全局异常捕获
-        initThirdPartyLibs();   // 初始化第三方库
-        // initDatabase();       // 初始化数据库（如需要）
+        new StartupRunner(this)
+                .add(new StartupTask("SPUtils") {
+                    @Override
+                    protected void run(Context context) {
+                        initSPUtils();
+                    }
+                })
+                // 前后台状态监听，网络请求调度依赖该状态
+                .add(new StartupTask("ForegroundTracker") {
+                    @Override
+                    protected void run(Context context) {
+                        ForegroundTracker.init(MyApplication.this);
+                    }
+                })
+                .add(new StartupTask("OkHttpUtil") {
+                    @Override
+                    protected void run(Context context) {
+                        initOkHttp();
+                    }
+                }.dependsOn("SPUtils", "ForegroundTracker"))
+                // 短剧视频磁盘缓存，供预加载和播放器使用
+                .add(new StartupTask("MediaCache") {
+                    @Override
+                    protected void run(Context context) {
+                        MediaCache.init(context);
+                    }
+                })
+                .add(new StartupTask("ThirdPartyLibs") {
+                    @Override
+                    protected void run(Context context) {
+                        initThirdPartyLibs();
+                    }
+                }.dependsOn("OkHttpUtil"))
+                .add(new StartupTask("Database") {
+                    @Override
+                    protected void run(Context context) {
+                        initDatabase();
+                    }
+                })
+                // Taku SDK要求在主线程初始化
+                .add(new StartupTask("Taku") {
+                    @Override
+                    protected void run(Context context) {
+                        initTaku();
+                    }
+                }.onMainThread())
+                // 调试日志和集成检测不影响首帧，延迟到首帧绘制完成后执行
+                .add(new StartupTask("TakuDebug") {
+                    @Override
+                    protected void run(Context context) {
+                        initTakuDebug();
+                    }
+                }.dependsOn("Taku").onMainThread().deferred())
+                .start();
         // initSharedPreferences(); // 初始化SharedPreferences（如需要）
     }
 
@@ -68,12 +128,16 @@ public class MyApplication extends Application {
      */
     private void initTaku() {
         ATSDK.init(this, PlacementIdUtil.getAppId(this), PlacementIdUtil.getAppKey( this));
+    }
+
+    /**
+     * Taku调试工具（非关键，首帧之后执行）
+     */
+    private void initTakuDebug() {
         // 应用上线前需要关闭日志功能
         ATSDK.setNetworkLogDebug(true);
         // 集成检测,上线前关闭，Logcat中过滤 anythink 的Tag
         ATSDK.integrationChecking(getApplicationContext());
-
-
     }
 
     /**
@@ -119,14 +183,28 @@ public class MyApplication extends Application {
     }
 
     /**
-     * 初始化工具类
+     * 初始化SPUtils
      */
-    private void initUtilClass() {
-        // 初始化SPUtils，Okhttp工具类
-        SPUtils.init(this);
-        // 初始化OkHttpUtil,必须在SPUtils之后初始化
+    private void initSPUtils() {
+        // 使用内存映射存储，频繁写入的计数、开关不再整文件重写；首次启动自动迁移旧SP数据
+        // 启动阶段要读取的文件在后台线程预加载
+        SPUtils.init(this, SPUtils.Backend.MMAP, AppConstants.SPFileName.PRELOAD);
+    }
+
+    /**
+     * 初始化OkHttpUtil，必须在SPUtils之后初始化
+     */
+    private void initOkHttp() {
         OkHttpUtil.init(this);
+        // 后台预热到BASE_URL的连接，首屏请求可直接复用
+        OkHttpUtil.getInstance().prewarm();
+    }
 
+    /**
+     * 初始化数据库（只创建实例，首次读写时在数据库线程打开）
+     */
+    private void initDatabase() {
+        AppDatabase.init(this);
     }
 
     /**
@@ -139,8 +217,8 @@ public class MyApplication extends Application {
         // 示例：初始化网络请求库
         // ApiClient.init(this);
 
-        // 示例：初始化图片加载库
-        // ImageLoader.init(this);
+        // 初始化图片加载，依赖OkHttpUtil
+        ImageLoader.init(this);
     }
 
     /**
@@ -176,7 +254,10 @@ public class MyApplication extends Application {
     public void onLowMemory() {
         super.onLowMemory();
         Log.d(TAG, "Application onLowMemory");
-        // 低内存时释放资源
+        // 低内存时释放资源（图片加载只在主进程初始化）
+        if (mMainProcess) {
+            ImageLoader.getInstance().clearMemory();
+        }
     }
 
     @Override
@@ -184,8 +265,8 @@ public class MyApplication extends Application {
         super.onTrimMemory(level);
         Log.d(TAG, "Application onTrimMemory: " + level);
         // 根据内存紧张程度释放资源
-        if (level >= TRIM_MEMORY_MODERATE) {
-            // 释放非必要资源
+        if (mMainProcess) {
+            ImageLoader.getInstance().trimMemory(level);
         }
     }
 }
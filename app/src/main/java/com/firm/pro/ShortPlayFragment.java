@@ -9,9 +9,11 @@ import android.widget.TextView;
 
 import androidx.fragment.app.Fragment;
 
-import com.firm.pro.utils.OkHttpUtil;
+import com.firm.pro.db.Feed;
+import com.firm.pro.db.FeedRepository;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ShortPlayFragment extends Fragment {
@@ -19,7 +21,8 @@ public class ShortPlayFragment extends Fragment {
     private static final String TAG = ShortPlayFragment.class.getSimpleName();
 
     private TextView textView;
-
+    // 是否已显示列表数据
+    private boolean hasData;
 
 
     @Override
@@ -42,25 +45,49 @@ public class ShortPlayFragment extends Fragment {
                 getRequest();
             }
         });
+        getRequest();
     }
 
+    /**
+     * 短剧列表先从本地数据库显示，超过同步间隔时再从网络同步，写库后刷新
+     */
     private void getRequest() {
         String url="/api/eventHistory/get";
         Map<String,String> params = new HashMap<>();
         params.put("id","3854942653ba11eb90470c42a1415493");
-        OkHttpUtil.getInstance().get(url,params, new OkHttpUtil.HttpCallback() {
+        FeedRepository.getInstance().loadFeed(url, params, new FeedRepository.DataCallback<List<Feed>>() {
             @Override
-            public void onSuccess(String response) {
-                textView.setText(response);
-//                System.out.println(response);
+            public void onData(List<Feed> feeds, boolean fromNetwork) {
+                if (textView != null) {
+                    showFeeds(feeds);
+                }
             }
 
             @Override
             public void onFailure(String errorMsg) {
-                textView.setText(errorMsg);
-//                System.out.println(errorMsg);
+                // 已显示本地数据时保留，不用错误信息覆盖
+                if (textView != null && !hasData) {
+                    textView.setText(errorMsg);
+                }
             }
         });
 
     }
+
+    private void showFeeds(List<Feed> feeds) {
+        hasData = !feeds.isEmpty();
+        StringBuilder sb = new StringBuilder();
+        for (Feed feed : feeds) {
+            sb.append(feed.title).append("（共").append(feed.episodeCount).append("集）\n");
+        }
+        textView.setText(sb);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // 视图已销毁，释放对旧视图的引用
+        textView = null;
+        hasData = false;
+    }
 }
\ No newline at end of file
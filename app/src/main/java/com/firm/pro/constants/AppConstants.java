@@ -7,6 +7,10 @@ public class AppConstants {
      */
     public static class SPFileName {
         public static final String USER_INFO = "user_info";
+        // 域名解析结果（最近一次成功解析的地址）
+        public static final String DNS_CACHE = "dns_cache";
+        // 启动时在后台线程预加载的文件，按读取先后排列（token拦截器最先读取USER_INFO）
+        public static final String[] PRELOAD = {USER_INFO, DNS_CACHE};
 
         public SPFileName() {
 
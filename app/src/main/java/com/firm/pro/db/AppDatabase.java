@@ -0,0 +1,147 @@
+package com.firm.pro.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * 本地数据库（剧集列表、分集、观看历史）
+ * 开启WAL，读取不会被写入阻塞；各Dao复用预编译语句，批量写入在一个事务中完成
+ * 使用示例：
+ * AppDatabase.getInstance().feedDao().queryPage(null, 20);
+ * 注意：所有查询和写入都会访问磁盘，不要在主线程调用，界面数据通过{@link FeedRepository}加载
+ */
+public class AppDatabase extends SQLiteOpenHelper {
+    private static final String DB_NAME = "app.db";
+    private static final int DB_VERSION = 1;
+    private static volatile AppDatabase sInstance;
+
+    private final FeedDao mFeedDao = new FeedDao(this);
+    private final EpisodeDao mEpisodeDao = new EpisodeDao(this);
+    private final HistoryDao mHistoryDao = new HistoryDao(this);
+    private SQLiteStatement mSyncedAtQuery;
+    private SQLiteStatement mMarkSynced;
+
+    private AppDatabase(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * 在Application中初始化，不会打开数据库，首次访问时才在调用线程打开
+     */
+    public static void init(Context context) {
+        if (sInstance == null) {
+            synchronized (AppDatabase.class) {
+                if (sInstance == null) {
+                    sInstance = new AppDatabase(context.getApplicationContext());
+                }
+            }
+        }
+    }
+
+    public static AppDatabase getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException("AppDatabase未初始化，请在Application中调用init()");
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE feed ("
+                + "id TEXT PRIMARY KEY NOT NULL, "
+                + "title TEXT, "
+                + "cover_url TEXT, "
+                + "episode_count INTEGER NOT NULL DEFAULT 0, "
+                + "sort_key INTEGER NOT NULL DEFAULT 0, "
+                + "updated_at INTEGER NOT NULL DEFAULT 0)");
+        // 列表按sort_key倒序、id正序分页
+        db.execSQL("CREATE INDEX idx_feed_sort ON feed (sort_key DESC, id)");
+
+        db.execSQL("CREATE TABLE episode ("
+                + "id TEXT PRIMARY KEY NOT NULL, "
+                + "feed_id TEXT NOT NULL, "
+                + "episode_index INTEGER NOT NULL, "
+                + "title TEXT, "
+                + "video_url TEXT, "
+                + "duration_ms INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE UNIQUE INDEX idx_episode_feed ON episode (feed_id, episode_index)");
+
+        db.execSQL("CREATE TABLE watch_history ("
+                + "feed_id TEXT PRIMARY KEY NOT NULL, "
+                + "episode_id TEXT, "
+                + "episode_index INTEGER NOT NULL DEFAULT 0, "
+                + "position_ms INTEGER NOT NULL DEFAULT 0, "
+                + "watched_at INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX idx_history_time ON watch_history (watched_at DESC, feed_id)");
+
+        // 各数据集最近一次从网络同步的时间
+        db.execSQL("CREATE TABLE sync_state (name TEXT PRIMARY KEY NOT NULL, synced_at INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 暂无历史版本，升级时按版本号逐步迁移
+    }
+
+    public FeedDao feedDao() {
+        return mFeedDao;
+    }
+
+    public EpisodeDao episodeDao() {
+        return mEpisodeDao;
+    }
+
+    public HistoryDao historyDao() {
+        return mHistoryDao;
+    }
+
+    /**
+     * 在一个事务中执行，任一操作抛出异常时整体回滚
+     */
+    public void runInTransaction(Runnable body) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            body.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 数据集最近一次同步的时间，未同步过返回0
+     */
+    public synchronized long syncedAt(String name) {
+        if (mSyncedAtQuery == null) {
+            mSyncedAtQuery = getWritableDatabase().compileStatement(
+                    "SELECT IFNULL(MAX(synced_at), 0) FROM sync_state WHERE name = ?");
+        }
+        mSyncedAtQuery.bindString(1, name);
+        return mSyncedAtQuery.simpleQueryForLong();
+    }
+
+    public synchronized void markSynced(String name, long time) {
+        if (mMarkSynced == null) {
+            mMarkSynced = getWritableDatabase().compileStatement(
+                    "INSERT OR REPLACE INTO sync_state (name, synced_at) VALUES (?, ?)");
+        }
+        mMarkSynced.bindString(1, name);
+        mMarkSynced.bindLong(2, time);
+        mMarkSynced.executeInsert();
+    }
+
+    /**
+     * 绑定可能为null的字符串参数
+     */
+    static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
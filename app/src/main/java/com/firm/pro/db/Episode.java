@@ -0,0 +1,14 @@
+package com.firm.pro.db;
+
+/**
+ * 分集，字段名与接口返回一致，可直接用Gson解析
+ */
+public class Episode {
+    public String id;
+    public String feedId;
+    // 第几集，从1开始
+    public int episodeIndex;
+    public String title;
+    public String videoUrl;
+    public long durationMs;
+}
@@ -0,0 +1,115 @@
+package com.firm.pro.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分集的读写，按(feed_id, episode_index)索引查询
+ */
+public final class EpisodeDao {
+    private static final String TAG = EpisodeDao.class.getSimpleName();
+    private static final String COLUMNS = "id, feed_id, episode_index, title, video_url, duration_ms";
+
+    private final SQLiteOpenHelper mHelper;
+    // 预编译的写入语句，由this保护
+    private SQLiteStatement mInsert;
+
+    EpisodeDao(SQLiteOpenHelper helper) {
+        this.mHelper = helper;
+    }
+
+    /**
+     * 批量写入，已存在的记录整体替换，在一个事务中完成
+     */
+    public synchronized void insertAll(List<Episode> episodes) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        if (mInsert == null) {
+            mInsert = db.compileStatement("INSERT OR REPLACE INTO episode (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?)");
+        }
+        db.beginTransactionNonExclusive();
+        try {
+            for (Episode episode : episodes) {
+                if (episode == null || episode.id == null || episode.feedId == null) {
+                    // 主键或所属短剧缺失的数据无法写入，跳过而不是让整批失败
+                    Log.w(TAG, "跳过缺少id或feedId的分集数据");
+                    continue;
+                }
+                mInsert.bindString(1, episode.id);
+                mInsert.bindString(2, episode.feedId);
+                mInsert.bindLong(3, episode.episodeIndex);
+                AppDatabase.bind(mInsert, 4, episode.title);
+                AppDatabase.bind(mInsert, 5, episode.videoUrl);
+                mInsert.bindLong(6, episode.durationMs);
+                mInsert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 用接口返回的分集替换某部短剧的全部分集：写入返回的记录，删除本次未返回的记录，在一个事务中完成
+     */
+    public synchronized void replaceByFeed(String feedId, List<Episode> episodes) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        Set<String> ids = new HashSet<>();
+        for (Episode episode : episodes) {
+            if (episode != null && episode.id != null && feedId.equals(episode.feedId)) {
+                ids.add(episode.id);
+            }
+        }
+        db.beginTransactionNonExclusive();
+        try {
+            insertAll(episodes);
+            Cursor cursor = db.rawQuery("SELECT id FROM episode WHERE feed_id = ?", new String[]{feedId});
+            try {
+                while (cursor.moveToNext()) {
+                    String id = cursor.getString(0);
+                    if (!ids.contains(id)) {
+                        db.delete("episode", "id = ?", new String[]{id});
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 查询某部短剧的全部分集，按集数排序
+     */
+    public List<Episode> listByFeed(String feedId) {
+        Cursor cursor = mHelper.getReadableDatabase().rawQuery(
+                "SELECT " + COLUMNS + " FROM episode WHERE feed_id = ? ORDER BY episode_index",
+                new String[]{feedId});
+        List<Episode> episodes;
+        try {
+            episodes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Episode episode = new Episode();
+                episode.id = cursor.getString(0);
+                episode.feedId = cursor.getString(1);
+                episode.episodeIndex = cursor.getInt(2);
+                episode.title = cursor.getString(3);
+                episode.videoUrl = cursor.getString(4);
+                episode.durationMs = cursor.getLong(5);
+                episodes.add(episode);
+            }
+        } finally {
+            cursor.close();
+        }
+        return episodes;
+    }
+}
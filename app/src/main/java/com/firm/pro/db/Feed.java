@@ -0,0 +1,16 @@
+package com.firm.pro.db;
+
+/**
+ * 短剧（列表项），字段名与接口返回一致，可直接用Gson解析
+ */
+public class Feed {
+    public String id;
+    public String title;
+    public String coverUrl;
+    // 总集数
+    public int episodeCount;
+    // 列表排序值，越大越靠前（如上架时间、推荐分）
+    public long sortKey;
+    // 本地写入时间
+    public long updatedAt;
+}
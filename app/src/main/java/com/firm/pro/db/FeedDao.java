@@ -0,0 +1,125 @@
+package com.firm.pro.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 短剧列表的读写，按sort_key倒序分页（基于上一页最后一条记录，不使用OFFSET）
+ */
+public final class FeedDao {
+    private static final String TAG = FeedDao.class.getSimpleName();
+    private static final String COLUMNS = "id, title, cover_url, episode_count, sort_key, updated_at";
+
+    private final SQLiteOpenHelper mHelper;
+    // 预编译的写入语句，由this保护
+    private SQLiteStatement mInsert;
+
+    FeedDao(SQLiteOpenHelper helper) {
+        this.mHelper = helper;
+    }
+
+    /**
+     * 批量写入，已存在的记录整体替换，在一个事务中完成
+     */
+    public synchronized void insertAll(List<Feed> feeds) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            insert(db, feeds, System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 用接口返回的列表（从最前面开始的一段）替换本地对应范围：写入返回的记录，
+     * 并删除排序值不小于返回列表最小值、但本次未返回的记录（服务端已下架或排到后面），在一个事务中完成。
+     * 返回空列表时清空全部
+     */
+    public synchronized void replaceTop(List<Feed> feeds) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        long minSortKey = Long.MIN_VALUE;
+        boolean first = true;
+        for (Feed feed : feeds) {
+            if (feed != null && feed.id != null && (first || feed.sortKey < minSortKey)) {
+                minSortKey = feed.sortKey;
+                first = false;
+            }
+        }
+        db.beginTransactionNonExclusive();
+        try {
+            insert(db, feeds, now);
+            // 本次写入的记录updated_at等于now，范围内其它记录就是服务端不再返回的
+            db.execSQL("DELETE FROM feed WHERE sort_key >= ? AND updated_at <> ?",
+                    new Object[]{minSortKey, now});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void insert(SQLiteDatabase db, List<Feed> feeds, long now) {
+        if (mInsert == null) {
+            mInsert = db.compileStatement("INSERT OR REPLACE INTO feed (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?)");
+        }
+        for (Feed feed : feeds) {
+            if (feed == null || feed.id == null) {
+                // 主键缺失的数据无法写入，跳过而不是让整批失败
+                Log.w(TAG, "跳过缺少id的短剧数据");
+                continue;
+            }
+            mInsert.bindString(1, feed.id);
+            AppDatabase.bind(mInsert, 2, feed.title);
+            AppDatabase.bind(mInsert, 3, feed.coverUrl);
+            mInsert.bindLong(4, feed.episodeCount);
+            mInsert.bindLong(5, feed.sortKey);
+            mInsert.bindLong(6, now);
+            mInsert.executeInsert();
+        }
+    }
+
+    /**
+     * 分页查询
+     * @param after 上一页最后一条记录，null表示第一页
+     * @param limit 每页条数
+     */
+    public List<Feed> queryPage(Feed after, int limit) {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        Cursor cursor;
+        if (after == null) {
+            cursor = db.rawQuery("SELECT " + COLUMNS + " FROM feed ORDER BY sort_key DESC, id LIMIT ?",
+                    new String[]{String.valueOf(limit)});
+        } else {
+            String sortKey = String.valueOf(after.sortKey);
+            cursor = db.rawQuery("SELECT " + COLUMNS + " FROM feed"
+                            + " WHERE sort_key < ? OR (sort_key = ? AND id > ?)"
+                            + " ORDER BY sort_key DESC, id LIMIT ?",
+                    new String[]{sortKey, sortKey, after.id, String.valueOf(limit)});
+        }
+        List<Feed> feeds;
+        try {
+            feeds = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Feed feed = new Feed();
+                feed.id = cursor.getString(0);
+                feed.title = cursor.getString(1);
+                feed.coverUrl = cursor.getString(2);
+                feed.episodeCount = cursor.getInt(3);
+                feed.sortKey = cursor.getLong(4);
+                feed.updatedAt = cursor.getLong(5);
+                feeds.add(feed);
+            }
+        } finally {
+            cursor.close();
+        }
+        return feeds;
+    }
+}
@@ -0,0 +1,257 @@
+package com.firm.pro.db;
+
+import android.util.Log;
+
+import com.firm.pro.utils.OkHttpUtil;
+import com.firm.pro.utils.UIUtils;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 界面数据入口：先从本地数据库返回，再按需从网络同步并写库后返回最新数据
+ * 同步时写入接口返回的数据，并在同一事务中删除对应范围内服务端已不再返回的记录。
+ * 距上次同步不超过{@link #SYNC_INTERVAL_MILLIS}时不请求网络。
+ * 数据库读写都在单独的数据库线程执行，结果回调在主线程。
+ * 使用示例：
+ * FeedRepository.getInstance().loadFeed(url, params, new FeedRepository.DataCallback<List<Feed>>() {
+ *     public void onData(List<Feed> feeds, boolean fromNetwork) { adapter.submit(feeds); }
+ *     public void onFailure(String errorMsg) { }
+ * });
+ */
+public class FeedRepository {
+    private static final String TAG = FeedRepository.class.getSimpleName();
+    // 同一数据集两次网络同步的最小间隔
+    public static final long SYNC_INTERVAL_MILLIS = 5 * 60 * 1000;
+    public static final int PAGE_SIZE = 20;
+    private static final String SYNC_FEED = "feed";
+    private static final String SYNC_EPISODES = "episodes:";
+    private static volatile FeedRepository sInstance;
+
+    private final Executor mDbExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AppDatabase");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private FeedRepository() {
+    }
+
+    public static FeedRepository getInstance() {
+        if (sInstance == null) {
+            synchronized (FeedRepository.class) {
+                if (sInstance == null) {
+                    sInstance = new FeedRepository();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 加载短剧列表第一页，本地有数据时先回调一次，同步后再回调一次
+     * @param url 列表接口，返回List<Feed>
+     */
+    public void loadFeed(String url, Map<String, String> params, DataCallback<List<Feed>> callback) {
+        final FeedDao dao = AppDatabase.getInstance().feedDao();
+        load(SYNC_FEED, url, params, new TypeToken<List<Feed>>() {
+        }, new Store<Feed>() {
+            @Override
+            public List<Feed> query() {
+                return dao.queryPage(null, PAGE_SIZE);
+            }
+
+            @Override
+            public void save(List<Feed> data) {
+                // 接口返回列表开头的一段，范围内服务端不再返回的记录一并删除
+                dao.replaceTop(data);
+            }
+        }, callback);
+    }
+
+    /**
+     * 从本地数据库加载下一页
+     * @param last 当前列表最后一条
+     */
+    public void loadMoreFeed(final Feed last, final DataCallback<List<Feed>> callback) {
+        mDbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliver(callback, AppDatabase.getInstance().feedDao().queryPage(last, PAGE_SIZE), false);
+                } catch (RuntimeException e) {
+                    deliverFailure(callback, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 加载某部短剧的分集列表
+     * @param url 分集接口，返回List<Episode>
+     */
+    public void loadEpisodes(final String feedId, String url, Map<String, String> params,
+                             DataCallback<List<Episode>> callback) {
+        final EpisodeDao dao = AppDatabase.getInstance().episodeDao();
+        load(SYNC_EPISODES + feedId, url, params, new TypeToken<List<Episode>>() {
+        }, new Store<Episode>() {
+            @Override
+            public List<Episode> query() {
+                return dao.listByFeed(feedId);
+            }
+
+            @Override
+            public void save(List<Episode> data) {
+                for (Episode episode : data) {
+                    if (episode != null && episode.feedId == null) {
+                        episode.feedId = feedId;
+                    }
+                }
+                dao.replaceByFeed(feedId, data);
+            }
+        }, callback);
+    }
+
+    /**
+     * 记录观看进度（异步写库）
+     */
+    public void recordWatch(final String feedId, final String episodeId, final int episodeIndex, final long positionMs) {
+        mDbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AppDatabase.getInstance().historyDao().record(feedId, episodeId, episodeIndex, positionMs);
+                } catch (RuntimeException e) {
+                    // 进度记录失败不影响播放
+                    Log.e(TAG, "记录观看进度失败", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 分页加载观看历史
+     * @param after 上一页最后一条，null表示第一页
+     */
+    public void loadHistory(final WatchHistory after, final DataCallback<List<WatchHistory>> callback) {
+        mDbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliver(callback, AppDatabase.getInstance().historyDao().queryPage(after, PAGE_SIZE), false);
+                } catch (RuntimeException e) {
+                    deliverFailure(callback, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 先读库，未过同步间隔时只返回本地数据；否则请求网络，写库后重新查询返回
+     * 网络回调直接在数据库线程执行，写库不经过主线程
+     * 数据库异常（磁盘已满、文件损坏等）通过onFailure回调，不抛到数据库线程
+     */
+    private <T> void load(final String syncName, final String url, final Map<String, String> params,
+                          final TypeToken<List<T>> typeToken, final Store<T> store, final DataCallback<List<T>> callback) {
+        mDbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final AppDatabase db = AppDatabase.getInstance();
+                boolean fresh;
+                try {
+                    List<T> cached = store.query();
+                    fresh = System.currentTimeMillis() - db.syncedAt(syncName) < SYNC_INTERVAL_MILLIS;
+                    // 本地为空且需要同步时不先回调空列表，避免界面闪烁
+                    if (fresh || !cached.isEmpty()) {
+                        deliver(callback, cached, false);
+                    }
+                } catch (RuntimeException e) {
+                    // 本地读取失败时仍尝试从网络同步
+                    Log.e(TAG, "读取本地数据失败：" + syncName, e);
+                    fresh = false;
+                }
+                if (fresh) {
+                    return;
+                }
+                OkHttpUtil.getInstance().callbackOn(mDbExecutor).get(url, params, typeToken,
+                        new OkHttpUtil.ObjectCallback<List<T>>() {
+                            @Override
+                            public void onSuccess(final List<T> data) {
+                                if (data == null) {
+                                    deliverFailure(callback, "数据为空");
+                                    return;
+                                }
+                                try {
+                                    db.runInTransaction(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            store.save(data);
+                                            db.markSynced(syncName, System.currentTimeMillis());
+                                        }
+                                    });
+                                    deliver(callback, store.query(), true);
+                                } catch (RuntimeException e) {
+                                    deliverFailure(callback, e);
+                                }
+                            }
+
+                            @Override
+                            public void onFailure(final String errorMsg) {
+                                deliverFailure(callback, errorMsg);
+                            }
+                        });
+            }
+        });
+    }
+
+    private static <T> void deliver(final DataCallback<T> callback, final T data, final boolean fromNetwork) {
+        UIUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onData(data, fromNetwork);
+            }
+        });
+    }
+
+    private static void deliverFailure(DataCallback<?> callback, RuntimeException e) {
+        Log.e(TAG, "数据库读写失败", e);
+        deliverFailure(callback, "数据库读写失败：" + e.getMessage());
+    }
+
+    private static void deliverFailure(final DataCallback<?> callback, final String errorMsg) {
+        UIUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailure(errorMsg);
+            }
+        });
+    }
+
+    /**
+     * 某个数据集在数据库中的读写方式
+     */
+    private interface Store<T> {
+        List<T> query();
+
+        void save(List<T> data);
+    }
+
+    /**
+     * 数据回调（主线程）
+     */
+    public interface DataCallback<T> {
+        /**
+         * @param fromNetwork false表示来自本地数据库，true表示网络同步后的最新数据
+         */
+        void onData(T data, boolean fromNetwork);
+
+        void onFailure(String errorMsg);
+    }
+}
@@ -0,0 +1,90 @@
+package com.firm.pro.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 观看历史的读写，每部短剧一条，按观看时间倒序分页
+ */
+public final class HistoryDao {
+    private static final String COLUMNS = "feed_id, episode_id, episode_index, position_ms, watched_at";
+
+    private final SQLiteOpenHelper mHelper;
+    // 预编译的写入语句，由this保护；播放过程中会频繁记录进度
+    private SQLiteStatement mUpsert;
+
+    HistoryDao(SQLiteOpenHelper helper) {
+        this.mHelper = helper;
+    }
+
+    /**
+     * 记录观看进度，覆盖该短剧之前的记录
+     */
+    public synchronized void record(String feedId, String episodeId, int episodeIndex, long positionMs) {
+        if (mUpsert == null) {
+            mUpsert = mHelper.getWritableDatabase().compileStatement(
+                    "INSERT OR REPLACE INTO watch_history (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?)");
+        }
+        mUpsert.bindString(1, feedId);
+        AppDatabase.bind(mUpsert, 2, episodeId);
+        mUpsert.bindLong(3, episodeIndex);
+        mUpsert.bindLong(4, positionMs);
+        mUpsert.bindLong(5, System.currentTimeMillis());
+        mUpsert.executeInsert();
+    }
+
+    /**
+     * 查询某部短剧的观看记录，没有时返回null
+     */
+    public WatchHistory get(String feedId) {
+        List<WatchHistory> list = query("SELECT " + COLUMNS + " FROM watch_history WHERE feed_id = ?",
+                new String[]{feedId});
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * 分页查询观看历史，最近观看的在前
+     * @param after 上一页最后一条记录，null表示第一页
+     */
+    public List<WatchHistory> queryPage(WatchHistory after, int limit) {
+        if (after == null) {
+            return query("SELECT " + COLUMNS + " FROM watch_history ORDER BY watched_at DESC, feed_id LIMIT ?",
+                    new String[]{String.valueOf(limit)});
+        }
+        String watchedAt = String.valueOf(after.watchedAt);
+        return query("SELECT " + COLUMNS + " FROM watch_history"
+                        + " WHERE watched_at < ? OR (watched_at = ? AND feed_id > ?)"
+                        + " ORDER BY watched_at DESC, feed_id LIMIT ?",
+                new String[]{watchedAt, watchedAt, after.feedId, String.valueOf(limit)});
+    }
+
+    public void delete(String feedId) {
+        mHelper.getWritableDatabase().delete("watch_history", "feed_id = ?", new String[]{feedId});
+    }
+
+    private List<WatchHistory> query(String sql, String[] args) {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery(sql, args);
+        List<WatchHistory> list;
+        try {
+            list = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                WatchHistory history = new WatchHistory();
+                history.feedId = cursor.getString(0);
+                history.episodeId = cursor.getString(1);
+                history.episodeIndex = cursor.getInt(2);
+                history.positionMs = cursor.getLong(3);
+                history.watchedAt = cursor.getLong(4);
+                list.add(history);
+            }
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+}
@@ -0,0 +1,13 @@
+package com.firm.pro.db;
+
+/**
+ * 观看历史，每部短剧只保留最近一次观看的位置
+ */
+public class WatchHistory {
+    public String feedId;
+    public String episodeId;
+    public int episodeIndex;
+    // 播放进度（毫秒）
+    public long positionMs;
+    public long watchedAt;
+}
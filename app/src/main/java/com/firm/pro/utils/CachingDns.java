@@ -0,0 +1,122 @@
+package com.firm.pro.utils;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.firm.pro.constants.AppConstants;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Dns;
+
+/**
+ * 带缓存的域名解析
+ * 解析结果在内存中缓存一段时间，期间请求无需再次解析；每次解析成功后持久化保存，
+ * 系统解析失败（弱网、DNS服务异常）时依次退回到过期的内存结果和上次成功解析的地址
+ */
+class CachingDns implements Dns {
+    private static final String TAG = CachingDns.class.getSimpleName();
+    // 持久化时多个地址之间的分隔符
+    private static final String SEPARATOR = ",";
+
+    private final Dns mDelegate;
+    private final long mTtlNanos;
+    private final Map<String, Entry> mCache = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate 实际执行解析的Dns，一般为{@link Dns#SYSTEM}
+     * @param ttlMillis 内存缓存有效期
+     */
+    CachingDns(Dns delegate, long ttlMillis) {
+        this.mDelegate = delegate;
+        this.mTtlNanos = ttlMillis * 1_000_000L;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry cached = mCache.get(hostname);
+        if (cached != null && System.nanoTime() < cached.expiresAt) {
+            return cached.addresses;
+        }
+        List<InetAddress> addresses;
+        try {
+            addresses = mDelegate.lookup(hostname);
+        } catch (UnknownHostException e) {
+            if (cached != null) {
+                Log.w(TAG, "解析失败，使用过期的缓存地址：" + hostname);
+                return cached.addresses;
+            }
+            List<InetAddress> lastKnown = loadLastKnownGood(hostname);
+            if (lastKnown.isEmpty()) {
+                throw e;
+            }
+            Log.w(TAG, "解析失败，使用上次成功解析的地址：" + hostname);
+            return lastKnown;
+        }
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(hostname);
+        }
+        addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+        mCache.put(hostname, new Entry(addresses, System.nanoTime() + mTtlNanos));
+        if (cached == null || !cached.addresses.equals(addresses)) {
+            saveLastKnownGood(hostname, addresses);
+        }
+        return addresses;
+    }
+
+    /**
+     * 清空内存缓存，默认网络切换后由{@link OkHttpUtil}调用
+     */
+    void clear() {
+        mCache.clear();
+    }
+
+    private static void saveLastKnownGood(String hostname, List<InetAddress> addresses) {
+        StringBuilder sb = new StringBuilder();
+        for (InetAddress address : addresses) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(address.getHostAddress());
+        }
+        String value = sb.toString();
+        // 地址未变化时不重复写文件
+        if (!value.equals(SPUtils.getInstance().getString(AppConstants.SPFileName.DNS_CACHE, hostname, ""))) {
+            SPUtils.getInstance().putString(AppConstants.SPFileName.DNS_CACHE, hostname, value);
+        }
+    }
+
+    private static List<InetAddress> loadLastKnownGood(String hostname) {
+        String value = SPUtils.getInstance().getString(AppConstants.SPFileName.DNS_CACHE, hostname, "");
+        List<InetAddress> addresses = new ArrayList<>();
+        if (TextUtils.isEmpty(value)) {
+            return addresses;
+        }
+        for (String ip : value.split(SEPARATOR)) {
+            try {
+                // IP字面量不会触发网络解析，保留原域名便于TLS校验和日志
+                byte[] raw = InetAddress.getByName(ip).getAddress();
+                addresses.add(InetAddress.getByAddress(hostname, raw));
+            } catch (UnknownHostException e) {
+                Log.w(TAG, "无效的缓存地址：" + ip);
+            }
+        }
+        return addresses;
+    }
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个域名的熔断器
+ * 关闭：正常放行，连续失败达到阈值后打开；
+ * 打开：直接拒绝，持续时间到期后进入半开；
+ * 半开：只放行一个探测请求，成功则关闭，失败则重新打开
+ */
+class CircuitBreaker {
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_HALF_OPEN = 2;
+
+    private final int mFailureThreshold;
+    private final long mOpenNanos;
+
+    private int mState = STATE_CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    // 半开状态下是否已有探测请求在途
+    private boolean mProbing;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.mFailureThreshold = failureThreshold;
+        this.mOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * 请求前调用，返回false表示熔断中应快速失败
+     */
+    synchronized boolean tryAcquire() {
+        if (mState == STATE_CLOSED) {
+            return true;
+        }
+        if (mState == STATE_OPEN) {
+            if (System.nanoTime() - mOpenedAt < mOpenNanos) {
+                return false;
+            }
+            mState = STATE_HALF_OPEN;
+            mProbing = false;
+        }
+        if (mProbing) {
+            return false;
+        }
+        mProbing = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        mState = STATE_CLOSED;
+        mConsecutiveFailures = 0;
+        mProbing = false;
+    }
+
+    synchronized void onFailure() {
+        mProbing = false;
+        if (mState == STATE_HALF_OPEN || ++mConsecutiveFailures >= mFailureThreshold) {
+            mState = STATE_OPEN;
+            mOpenedAt = System.nanoTime();
+            mConsecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * 请求结果不能反映服务健康状况（取消、命中缓存等），释放探测名额
+     */
+    synchronized void release() {
+        mProbing = false;
+    }
+
+    /**
+     * 熔断期间的快速失败异常
+     */
+    static class CircuitOpenException extends IOException {
+        CircuitOpenException(String host) {
+            super("服务暂不可用，请稍后重试（" + host + "）");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.firm.pro.utils;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 应用前后台状态监听
+ * 通过统计处于started状态的Activity数量判断应用是否在前台，需在Application中调用init()
+ */
+public class ForegroundTracker implements Application.ActivityLifecycleCallbacks {
+    private static final ForegroundTracker INSTANCE = new ForegroundTracker();
+    private static final List<Listener> sListeners = new CopyOnWriteArrayList<>();
+    private static volatile boolean sInitialized;
+    // 未初始化时默认视为前台，避免误判
+    private static volatile boolean sForeground = true;
+
+    // 处于started状态的Activity数量，只在主线程访问
+    private int mStartedCount;
+
+    private ForegroundTracker() {
+    }
+
+    /**
+     * 在Application中初始化
+     */
+    public static void init(Application application) {
+        if (sInitialized) {
+            return;
+        }
+        sInitialized = true;
+        // 进程启动时还没有Activity可见
+        sForeground = false;
+        application.registerActivityLifecycleCallbacks(INSTANCE);
+    }
+
+    /**
+     * 应用当前是否在前台
+     */
+    public static boolean isForeground() {
+        return sForeground;
+    }
+
+    /**
+     * 添加前后台切换监听（回调在主线程）
+     */
+    public static void addListener(Listener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static void setForeground(boolean foreground) {
+        if (sForeground == foreground) {
+            return;
+        }
+        sForeground = foreground;
+        for (Listener listener : sListeners) {
+            listener.onForegroundChanged(foreground);
+        }
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        if (++mStartedCount == 1) {
+            setForeground(true);
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        if (mStartedCount > 0 && --mStartedCount == 0) {
+            setForeground(false);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+
+    /**
+     * 前后台切换监听
+     */
+    public interface Listener {
+        void onForegroundChanged(boolean foreground);
+    }
+}
@@ -0,0 +1,69 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * 请求体gzip压缩拦截器
+ * 请求体达到阈值（或长度未知）时压缩并添加Content-Encoding: gzip，
+ * 对象请求体{@link JsonObjectBody}长度已知，按序列化后的大小判断，
+ * 需要服务端支持解压，默认关闭。响应的gzip由OkHttp自动协商和解压，无需处理
+ */
+class GzipRequestInterceptor implements Interceptor {
+    // 压缩阈值（字节），小于0表示关闭
+    private volatile long mThreshold = -1;
+
+    void setThreshold(long threshold) {
+        this.mThreshold = threshold;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        long threshold = mThreshold;
+        RequestBody body = request.body();
+        if (threshold < 0 || body == null || request.header("Content-Encoding") != null) {
+            return chain.proceed(request);
+        }
+        long length = body.contentLength();
+        // 小请求压缩收益不抵开销
+        if (length >= 0 && length < threshold) {
+            return chain.proceed(request);
+        }
+        Request compressedRequest = request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), gzip(body))
+                .build();
+        return chain.proceed(compressedRequest);
+    }
+
+    private static RequestBody gzip(final RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() {
+                // 压缩后长度未知
+                return -1;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                body.writeTo(gzipSink);
+                gzipSink.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,363 @@
+package com.firm.pro.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * POST请求批量合并发送
+ * 标记为可批量的JSON请求先进入缓冲区，数量达到上限或等待超时后合并为一个gzip压缩的请求发送，
+ * 服务端按id逐条返回结果，再分发给各自的回调。
+ * 请求格式：{"requests":[{"id":"1","url":"/api/xxx","body":{...}}]}
+ * 响应格式：{"responses":[{"id":"1","code":200,"body":{...}}]}
+ * 合并后的请求使用BACKGROUND优先级，不占用交互请求的名额
+ */
+class HttpBatcher {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OkHttpClient mClient;
+    private final RequestScheduler mScheduler;
+    private final Gson mGson;
+    private final String mBatchUrl;
+    private final int mMaxBatchSize;
+    private final long mMaxDelayMillis;
+    private final AtomicLong mNextId = new AtomicLong();
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HttpBatcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private List<Entry<?>> mBuffer = new ArrayList<>();
+    private ScheduledFuture<?> mPendingFlush;
+    // 被新的批量配置替换后不再缓冲，加入的请求立即发送
+    private boolean mShutdown;
+
+    /**
+     * @param batchUrl 批量接口完整地址
+     * @param maxBatchSize 单批最大请求数，达到后立即发送
+     * @param maxDelayMillis 最长缓冲时间，超时后发送
+     */
+    HttpBatcher(OkHttpClient client, RequestScheduler scheduler, Gson gson,
+                String batchUrl, int maxBatchSize, long maxDelayMillis) {
+        this.mClient = client;
+        this.mScheduler = scheduler;
+        this.mGson = gson;
+        this.mBatchUrl = batchUrl;
+        this.mMaxBatchSize = maxBatchSize;
+        this.mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * 加入缓冲区
+     * @param url 原始请求地址
+     * @param json 原始请求JSON
+     * @param typeToken 响应数据类型，为null时以字符串返回
+     * @param executor 回调线程
+     */
+    <T> OkHttpUtil.RequestHandle add(String url, String json, TypeToken<T> typeToken,
+                                     OkHttpUtil.ObjectCallback<T> callback, Executor executor) {
+        Entry<T> entry = new Entry<>(String.valueOf(mNextId.incrementAndGet()), url, json, typeToken, callback, executor);
+        boolean flushNow = false;
+        synchronized (this) {
+            mBuffer.add(entry);
+            if (mShutdown || mBuffer.size() >= mMaxBatchSize) {
+                flushNow = true;
+            } else if (mPendingFlush == null) {
+                mPendingFlush = mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+        return entry;
+    }
+
+    /**
+     * 发送缓冲区中的请求并停止定时线程，之后加入的请求不再缓冲
+     */
+    void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        flush();
+        mTimer.shutdown();
+    }
+
+    /**
+     * 立即发送缓冲区中的请求
+     */
+    void flush() {
+        final List<Entry<?>> batch = new ArrayList<>();
+        synchronized (this) {
+            if (mPendingFlush != null) {
+                mPendingFlush.cancel(false);
+                mPendingFlush = null;
+            }
+            for (Entry<?> entry : mBuffer) {
+                if (!entry.canceled) {
+                    batch.add(entry);
+                }
+            }
+            mBuffer = new ArrayList<>();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(mBatchUrl)
+                .header("Content-Encoding", "gzip")
+                .post(new EnvelopeBody(batch))
+                .tag(OkHttpUtil.Priority.class, OkHttpUtil.Priority.BACKGROUND)
+                .build();
+        mScheduler.enqueue(mClient.newCall(request), new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                for (Entry<?> entry : batch) {
+                    entry.deliverFailure(e.getMessage());
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (!response.isSuccessful()) {
+                        for (Entry<?> entry : batch) {
+                            entry.deliverFailure("请求失败，错误码：" + response.code());
+                        }
+                        return;
+                    }
+                    dispatchResponses(response, batch);
+                } catch (IOException | JsonParseException e) {
+                    for (Entry<?> entry : batch) {
+                        entry.deliverFailure("批量请求解析失败：" + e.getMessage());
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * 流式解析批量响应，按id分发给各请求
+     */
+    private void dispatchResponses(Response response, List<Entry<?>> batch) throws IOException {
+        Map<String, Entry<?>> pending = new HashMap<>();
+        for (Entry<?> entry : batch) {
+            pending.put(entry.id, entry);
+        }
+        JsonReader reader = new JsonReader(response.body().charStream());
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"responses".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readItem(reader, pending);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        // 服务端没有返回结果的请求按失败处理
+        for (Entry<?> entry : pending.values()) {
+            entry.deliverFailure("批量请求结果缺失");
+        }
+    }
+
+    private void readItem(JsonReader reader, Map<String, Entry<?>> pending) throws IOException {
+        String id = null;
+        int code = 0;
+        JsonElement body = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name)) {
+                id = reader.nextString();
+            } else if ("code".equals(name)) {
+                code = reader.nextInt();
+            } else if ("body".equals(name)) {
+                body = JsonParser.parseReader(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        Entry<?> entry = pending.remove(id);
+        if (entry == null) {
+            return;
+        }
+        if (code >= 200 && code < 300) {
+            entry.deliverSuccess(mGson, body);
+        } else {
+            entry.deliverFailure("请求失败，错误码：" + code);
+        }
+    }
+
+    /**
+     * 批量请求体，边序列化边gzip压缩写入，各请求的JSON原样嵌入不重新解析
+     */
+    private static class EnvelopeBody extends RequestBody {
+        private final List<Entry<?>> batch;
+
+        EnvelopeBody(List<Entry<?>> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(gzipSink.outputStream(), UTF_8));
+            writer.beginObject();
+            writer.name("requests");
+            writer.beginArray();
+            for (Entry<?> entry : batch) {
+                writer.beginObject();
+                writer.name("id").value(entry.id);
+                writer.name("url").value(entry.url);
+                writer.name("body").jsonValue(entry.json);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            // 关闭时写入gzip尾部
+            writer.close();
+        }
+    }
+
+    /**
+     * 缓冲区中的单个请求
+     */
+    private static class Entry<T> implements OkHttpUtil.RequestHandle {
+        final String id;
+        final String url;
+        final String json;
+        final TypeToken<T> typeToken;
+        final OkHttpUtil.ObjectCallback<T> callback;
+        final Executor executor;
+        volatile boolean canceled;
+        volatile boolean finished;
+
+        Entry(String id, String url, String json, TypeToken<T> typeToken,
+              OkHttpUtil.ObjectCallback<T> callback, Executor executor) {
+            this.id = id;
+            this.url = url;
+            this.json = json;
+            this.typeToken = typeToken;
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        @SuppressWarnings("unchecked")
+        void deliverSuccess(Gson gson, JsonElement body) {
+            final T data;
+            try {
+                if (typeToken == null) {
+                    // 字符串回调：字符串类型直接取值，其余保持JSON文本
+                    data = (T) (body == null || body.isJsonNull() ? null
+                            : body.isJsonPrimitive() ? body.getAsString() : body.toString());
+                } else {
+                    data = gson.fromJson(body, typeToken.getType());
+                }
+            } catch (JsonParseException e) {
+                deliverFailure("数据解析失败：" + e.getMessage());
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    // 回调送达时才标记结束，避免被RequestScope提前清理后取消不到
+                    finished = true;
+                    if (callback != null) {
+                        callback.onSuccess(data);
+                    }
+                }
+            });
+        }
+
+        void deliverFailure(final String errorMsg) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    finished = true;
+                    if (callback != null) {
+                        callback.onFailure(errorMsg);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            // 未发送时发送前会被剔除，已发送时不再回调
+            canceled = true;
+            finished = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,711 @@
+package com.firm.pro.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * 文件下载，响应体边读边写入文件，内存占用固定，不随文件大小增长
+ * 下载中的数据写入"目标文件.part"，校验信息（ETag/Last-Modified、总长度、分块进度）写入"目标文件.part.meta"，
+ * 中断后再次下载同一地址到同一文件时通过Range + If-Range续传，服务端文件已变化时自动重新下载。
+ * 分块下载：服务端支持Range且文件足够大时拆分为多段并行下载，写入同一文件的不同位置
+ */
+class HttpDownloader implements OkHttpUtil.RequestHandle {
+    private static final String TAG = HttpDownloader.class.getSimpleName();
+    // 进度回调最小间隔：200毫秒
+    private static final long PROGRESS_INTERVAL_NANOS = 200_000_000L;
+    // 每个分块不小于2MB，文件小于两个分块时不拆分
+    private static final long MIN_CHUNK_SIZE = 2L * 1024 * 1024;
+    // 单次下载中连接中断时自动续传的次数
+    private static final int MAX_RESUME_ATTEMPTS = 3;
+    // 每次从网络读取的最大字节数
+    private static final long READ_SIZE = 64 * 1024;
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+    // 下载线程，请求使用同步调用，不占用OkHttp Dispatcher的异步名额；超出线程数的下载排队等待
+    private static final ExecutorService EXECUTOR = newPool("HttpDownloader", 3);
+    // 分块线程，与下载线程分开，避免等待分块的下载线程占满线程池导致分块无法执行
+    private static final ExecutorService CHUNK_EXECUTOR = newPool("HttpDownloader-chunk", 6);
+
+    private final OkHttpClient mClient;
+    private final String mUrl;
+    private final File mTarget;
+    private final File mPartFile;
+    private final File mMetaFile;
+    private final int mParallelism;
+    private final OkHttpUtil.DownloadCallback mCallback;
+    private final Executor mCallbackExecutor;
+    private final List<Call> mCalls = new CopyOnWriteArrayList<>();
+    // 当前这一轮分块下载的任务，任一分块失败时全部中止
+    private final List<ChunkTask> mChunkTasks = new CopyOnWriteArrayList<>();
+    private final AtomicLong mDownloaded = new AtomicLong();
+    private final Object mProgressLock = new Object();
+    private volatile long mTotal = -1;
+    private volatile boolean mCanceled;
+    private volatile boolean mFinished;
+    // 分块下载已中止，各分块不再重试和写入文件
+    private volatile boolean mChunksAborted;
+    private long mLastProgressNanos;
+    // 分块下载时的元数据，进度回调时顺带保存
+    private volatile Meta mChunkedMeta;
+
+    /**
+     * @param parallelism 最大分块数，1表示不分块
+     */
+    HttpDownloader(OkHttpClient client, String url, File target, int parallelism,
+                   OkHttpUtil.DownloadCallback callback, Executor callbackExecutor) {
+        this.mClient = client;
+        this.mUrl = url;
+        this.mTarget = target;
+        this.mPartFile = new File(target.getPath() + ".part");
+        this.mMetaFile = new File(target.getPath() + ".part.meta");
+        this.mParallelism = Math.max(1, parallelism);
+        this.mCallback = callback;
+        this.mCallbackExecutor = callbackExecutor;
+    }
+
+    void start() {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File dir = mTarget.getAbsoluteFile().getParentFile();
+                    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                        throw new IOException("无法创建目录：" + dir);
+                    }
+                    download();
+                    complete();
+                } catch (IOException e) {
+                    if (!mCanceled) {
+                        deliverFailure(e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private void download() throws IOException {
+        Meta meta = mPartFile.exists() ? Meta.load(mMetaFile) : null;
+        if (meta != null && meta.chunks != null) {
+            if (meta.validator != null && downloadChunked(meta)) {
+                return;
+            }
+            reset();
+            meta = null;
+        }
+        if (meta == null && mParallelism > 1) {
+            Meta probe = probe();
+            if (probe != null) {
+                probe.chunks = plan(probe.length);
+                RandomAccessFile file = new RandomAccessFile(mPartFile, "rw");
+                try {
+                    file.setLength(probe.length);
+                } finally {
+                    file.close();
+                }
+                probe.save(mMetaFile);
+                if (downloadChunked(probe)) {
+                    return;
+                }
+                reset();
+            }
+        }
+        downloadSingle(meta);
+    }
+
+    /**
+     * 单连接下载，已有部分数据且能校验时续传
+     */
+    private void downloadSingle(Meta meta) throws IOException {
+        int attempts = 0;
+        while (true) {
+            long offset = mPartFile.exists() ? mPartFile.length() : 0;
+            String validator = meta != null ? meta.validator : null;
+            if (validator == null) {
+                // 无法确认服务端文件未变化，不能续传
+                offset = 0;
+            }
+            Request.Builder builder = newRequest();
+            if (offset > 0) {
+                builder.header("Range", "bytes=" + offset + "-").header("If-Range", validator);
+            }
+            Response response = execute(builder.build());
+            try {
+                int code = response.code();
+                if (code == 416 && meta != null && meta.length == offset) {
+                    // 上次已经下载完整
+                    mTotal = offset;
+                    mDownloaded.set(offset);
+                    return;
+                }
+                boolean append;
+                ResponseBody body = response.body();
+                if (code == 206 && offset > 0) {
+                    append = true;
+                    mTotal = totalFromContentRange(response, offset + body.contentLength());
+                } else if (code == 200) {
+                    // 首次下载，或服务端文件已变化（If-Range不匹配时返回完整内容）
+                    append = false;
+                    offset = 0;
+                    mTotal = body.contentLength();
+                    meta = new Meta(validatorOf(response), mTotal);
+                    meta.save(mMetaFile);
+                } else {
+                    throw new HttpException("请求失败，错误码：" + code);
+                }
+                mDownloaded.set(offset);
+                BufferedSink sink = Okio.buffer(append ? Okio.appendingSink(mPartFile) : Okio.sink(mPartFile));
+                try {
+                    copy(body.source(), sink, null);
+                } finally {
+                    sink.close();
+                }
+                return;
+            } catch (IOException e) {
+                if (mCanceled || !isResumable(e) || ++attempts > MAX_RESUME_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w(TAG, "下载中断，自动续传：" + e.getMessage());
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * 分块并行下载
+     * @return false表示服务端文件已变化，需要重新下载
+     */
+    private boolean downloadChunked(final Meta meta) throws IOException {
+        mTotal = meta.length;
+        long done = 0;
+        for (Chunk chunk : meta.chunks) {
+            done += chunk.written;
+        }
+        mDownloaded.set(done);
+        mChunkedMeta = meta;
+
+        mChunksAborted = false;
+        mChunkTasks.clear();
+        List<Chunk> pending = new ArrayList<>();
+        for (Chunk chunk : meta.chunks) {
+            if (!chunk.isComplete()) {
+                pending.add(chunk);
+            }
+        }
+        CountDownLatch finished = new CountDownLatch(pending.size());
+        AtomicReference<IOException> error = new AtomicReference<>();
+        for (Chunk chunk : pending) {
+            ChunkTask task = new ChunkTask(meta, chunk, finished, error);
+            mChunkTasks.add(task);
+            task.future = CHUNK_EXECUTOR.submit(task);
+        }
+        boolean interrupted = false;
+        try {
+            // 中止后也要等所有分块任务结束，之后才能保存进度、删除或重建临时文件
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    abortChunks();
+                }
+            }
+        } finally {
+            // 保存各分块进度，下次续传
+            mChunkTasks.clear();
+            mChunkedMeta = null;
+            meta.save(mMetaFile);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("download interrupted");
+        }
+        IOException e = error.get();
+        if (e instanceof ValidatorChangedException) {
+            return false;
+        }
+        if (e != null) {
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 中止本轮分块下载：未开始的分块不再执行，正在执行的分块取消请求后不再重试
+     */
+    private void abortChunks() {
+        mChunksAborted = true;
+        for (ChunkTask task : mChunkTasks) {
+            task.skip();
+        }
+        cancelCalls();
+    }
+
+    private void downloadChunk(Meta meta, Chunk chunk) throws IOException {
+        int attempts = 0;
+        while (!chunk.isComplete()) {
+            if (mCanceled || mChunksAborted) {
+                throw new IOException("Canceled");
+            }
+            Request request = newRequest()
+                    .header("Range", "bytes=" + (chunk.start + chunk.written) + "-" + chunk.end)
+                    .header("If-Range", meta.validator)
+                    .build();
+            Response response = execute(request);
+            RandomAccessFile file = null;
+            try {
+                if (response.code() == 200) {
+                    throw new ValidatorChangedException();
+                }
+                if (response.code() != 206) {
+                    throw new HttpException("请求失败，错误码：" + response.code());
+                }
+                file = new RandomAccessFile(mPartFile, "rw");
+                file.seek(chunk.start + chunk.written);
+                OutputStream out = Channels.newOutputStream(file.getChannel());
+                BufferedSink sink = Okio.buffer(Okio.sink(out));
+                try {
+                    copy(response.body().source(), sink, chunk);
+                } finally {
+                    sink.close();
+                }
+            } catch (ValidatorChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (mCanceled || mChunksAborted || !isResumable(e) || ++attempts > MAX_RESUME_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w(TAG, "分块下载中断，自动续传：" + e.getMessage());
+            } finally {
+                response.close();
+                if (file != null) {
+                    file.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 探测文件大小、校验信息及是否支持Range，不满足分块条件时返回null
+     */
+    private Meta probe() throws IOException {
+        Response response = execute(newRequest().head().build());
+        try {
+            if (!response.isSuccessful() || !"bytes".equalsIgnoreCase(response.header("Accept-Ranges"))) {
+                return null;
+            }
+            String validator = validatorOf(response);
+            long length = parseLong(response.header("Content-Length"), -1);
+            if (validator == null || length < MIN_CHUNK_SIZE * 2) {
+                return null;
+            }
+            return new Meta(validator, length);
+        } finally {
+            response.close();
+        }
+    }
+
+    private List<Chunk> plan(long length) {
+        int count = (int) Math.min(mParallelism, length / MIN_CHUNK_SIZE);
+        long size = length / count;
+        List<Chunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? length - 1 : start + size - 1;
+            chunks.add(new Chunk(start, end, 0));
+        }
+        return chunks;
+    }
+
+    /**
+     * 从网络读取写入文件，每次读取后只把完整的segment写入文件，缓冲区大小固定
+     * 分块进度只计入已写入文件的字节，保证进度文件中记录的位置之前的数据都已落到文件中
+     */
+    private void copy(BufferedSource source, BufferedSink sink, Chunk chunk) throws IOException {
+        long base = chunk != null ? chunk.written : 0;
+        long total = 0;
+        long read;
+        while ((read = source.read(sink.getBuffer(), READ_SIZE)) != -1) {
+            if (mCanceled || (chunk != null && mChunksAborted)) {
+                throw new IOException("Canceled");
+            }
+            sink.emitCompleteSegments();
+            total += read;
+            if (chunk != null) {
+                chunk.written = base + total - sink.getBuffer().size();
+            }
+            onBytesRead(read);
+        }
+        sink.flush();
+        if (chunk != null) {
+            chunk.written = base + total;
+        }
+    }
+
+    private void onBytesRead(long count) {
+        long downloaded = mDownloaded.addAndGet(count);
+        long now = System.nanoTime();
+        synchronized (mProgressLock) {
+            if (now - mLastProgressNanos < PROGRESS_INTERVAL_NANOS) {
+                return;
+            }
+            mLastProgressNanos = now;
+        }
+        Meta meta = mChunkedMeta;
+        if (meta != null) {
+            try {
+                meta.save(mMetaFile);
+            } catch (IOException e) {
+                Log.w(TAG, "保存下载进度失败", e);
+            }
+        }
+        deliverProgress(downloaded, mTotal);
+    }
+
+    private void complete() throws IOException {
+        if (mCanceled) {
+            return;
+        }
+        if (mTotal >= 0 && mPartFile.length() != mTotal) {
+            reset();
+            throw new IOException("文件长度不一致，已删除临时文件");
+        }
+        if (mTarget.exists() && !mTarget.delete()) {
+            throw new IOException("无法覆盖文件：" + mTarget);
+        }
+        if (!mPartFile.renameTo(mTarget)) {
+            throw new IOException("无法重命名文件：" + mPartFile);
+        }
+        mMetaFile.delete();
+        final long length = mTarget.length();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCanceled) {
+                    return;
+                }
+                // 回调送达时才标记结束，避免被RequestScope提前清理后取消不到
+                mFinished = true;
+                if (mCallback != null) {
+                    mCallback.onProgress(length, length);
+                    mCallback.onSuccess(mTarget);
+                }
+            }
+        });
+    }
+
+    private Request.Builder newRequest() {
+        // 禁止压缩，保证Range偏移与文件字节一致；大文件不写入HTTP缓存
+        return new Request.Builder()
+                .url(mUrl)
+                .header("Accept-Encoding", "identity")
+                .cacheControl(NO_STORE);
+    }
+
+    private Response execute(Request request) throws IOException {
+        Call call = mClient.newCall(request);
+        mCalls.add(call);
+        if (mCanceled) {
+            call.cancel();
+        }
+        try {
+            return call.execute();
+        } finally {
+            mCalls.remove(call);
+        }
+    }
+
+    private void cancelCalls() {
+        for (Call call : mCalls) {
+            call.cancel();
+        }
+    }
+
+    private void reset() {
+        mPartFile.delete();
+        mMetaFile.delete();
+        mDownloaded.set(0);
+    }
+
+    private void deliverProgress(final long downloaded, final long total) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCallback != null && !mCanceled) {
+                    mCallback.onProgress(downloaded, total);
+                }
+            }
+        });
+    }
+
+    private void deliverFailure(final String errorMsg) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCanceled) {
+                    return;
+                }
+                mFinished = true;
+                if (mCallback != null) {
+                    mCallback.onFailure(errorMsg);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        // 已下载的部分保留，下次下载同一文件时续传
+        mCanceled = true;
+        mFinished = true;
+        cancelCalls();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * 只有网络中断类异常才续传，HTTP错误码和本地文件错误直接失败
+     */
+    private static boolean isResumable(IOException e) {
+        return !(e instanceof HttpException) && !(e instanceof FileNotFoundException);
+    }
+
+    private static ExecutorService newPool(final String name, int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * If-Range只接受强ETag，弱ETag时退回Last-Modified
+     */
+    private static String validatorOf(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * 解析Content-Range: bytes 100-199/1000中的总长度
+     */
+    private static long totalFromContentRange(Response response, long fallback) {
+        String range = response.header("Content-Range");
+        if (range != null) {
+            int slash = range.lastIndexOf('/');
+            if (slash >= 0) {
+                return parseLong(range.substring(slash + 1).trim(), fallback);
+            }
+        }
+        return fallback;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * 服务端文件已变化，分块下载需要重新开始
+     */
+    private static class ValidatorChangedException extends IOException {
+    }
+
+    /**
+     * 单个分块的下载任务，开始执行和被跳过只会发生其一，保证每个任务恰好计数一次
+     */
+    private final class ChunkTask implements Runnable {
+        private final Meta mMeta;
+        private final Chunk mChunk;
+        private final CountDownLatch mDone;
+        private final AtomicReference<IOException> mError;
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+        volatile Future<?> future;
+
+        ChunkTask(Meta meta, Chunk chunk, CountDownLatch done, AtomicReference<IOException> error) {
+            this.mMeta = meta;
+            this.mChunk = chunk;
+            this.mDone = done;
+            this.mError = error;
+        }
+
+        @Override
+        public void run() {
+            if (!mClaimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                downloadChunk(mMeta, mChunk);
+            } catch (IOException e) {
+                // 只记录第一个错误，其余分块因中止抛出的异常忽略
+                if (mError.compareAndSet(null, e)) {
+                    abortChunks();
+                }
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        /**
+         * 尚未开始执行时跳过该分块
+         */
+        void skip() {
+            if (mClaimed.compareAndSet(false, true)) {
+                Future<?> f = future;
+                if (f != null) {
+                    f.cancel(false);
+                }
+                mDone.countDown();
+            }
+        }
+    }
+
+    private static class Chunk {
+        final long start;
+        // 包含
+        final long end;
+        volatile long written;
+
+        Chunk(long start, long end, long written) {
+            this.start = start;
+            this.end = end;
+            this.written = written;
+        }
+
+        boolean isComplete() {
+            return start + written > end;
+        }
+    }
+
+    /**
+     * 续传所需的校验信息，以properties格式保存
+     */
+    private static class Meta {
+        final String validator;
+        final long length;
+        List<Chunk> chunks;
+
+        Meta(String validator, long length) {
+            this.validator = validator;
+            this.length = length;
+        }
+
+        static Meta load(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            Properties properties = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                properties.load(in);
+                Meta meta = new Meta(properties.getProperty("validator"), parseLong(properties.getProperty("length"), -1));
+                String chunks = properties.getProperty("chunks");
+                if (chunks != null) {
+                    meta.chunks = new ArrayList<>();
+                    for (String item : chunks.split(",")) {
+                        // start-end:written
+                        String[] range = item.split("[-:]");
+                        meta.chunks.add(new Chunk(Long.parseLong(range[0]), Long.parseLong(range[1]), Long.parseLong(range[2])));
+                    }
+                }
+                return meta;
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "下载进度文件无效，重新下载", e);
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        synchronized void save(File file) throws IOException {
+            Properties properties = new Properties();
+            if (validator != null) {
+                properties.setProperty("validator", validator);
+            }
+            properties.setProperty("length", String.valueOf(length));
+            if (chunks != null) {
+                StringBuilder sb = new StringBuilder();
+                for (Chunk chunk : chunks) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(chunk.start).append('-').append(chunk.end).append(':').append(chunk.written);
+                }
+                properties.setProperty("chunks", sb.toString());
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+
+/**
+ * 请求失败，用于{@link HttpFuture}异常结束，message与回调接口的errorMsg一致
+ */
+public class HttpException extends IOException {
+    public HttpException(String message) {
+        super(message);
+    }
+}
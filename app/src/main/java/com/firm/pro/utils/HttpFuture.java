@@ -0,0 +1,145 @@
+package com.firm.pro.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 网络请求结果，可用CompletableFuture的方式串联多步请求，例如：
+ * OkHttpUtil.getInstance().getAsync(url, params, User.class)
+ *         .thenCompose(user -> OkHttpUtil.getInstance().getAsync(feedUrl, user.feedParams(), Feed.class))
+ *         .thenAccept(feed -> adapter.submit(feed));
+ * 结果在创建请求时指定的回调线程完成（见{@link OkHttpUtil#callbackOn}），后续非Async阶段也在该线程执行。
+ * 失败时以{@link HttpException}异常结束；取消Future会取消底层请求，也可直接交给{@link RequestScope}管理
+ */
+public class HttpFuture<T> extends CompletableFuture<T> implements OkHttpUtil.RequestHandle {
+    private volatile OkHttpUtil.RequestHandle mHandle;
+    // 合并结果时的各个子请求，取消时一并取消
+    private volatile List<? extends CompletableFuture<?>> mChildren;
+
+    HttpFuture() {
+    }
+
+    /**
+     * 关联底层请求，Future在关联前已被取消时立即取消请求
+     */
+    HttpFuture<T> bind(OkHttpUtil.RequestHandle handle) {
+        mHandle = handle;
+        if (isCancelled()) {
+            handle.cancel();
+        }
+        return this;
+    }
+
+    /**
+     * 以回调接口的形式完成本Future
+     */
+    OkHttpUtil.ObjectCallback<T> asCallback() {
+        return new OkHttpUtil.ObjectCallback<T>() {
+            @Override
+            public void onSuccess(T data) {
+                complete(data);
+            }
+
+            @Override
+            public void onFailure(String errorMsg) {
+                completeExceptionally(new HttpException(errorMsg));
+            }
+        };
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean canceled = super.cancel(mayInterruptIfRunning);
+        if (canceled) {
+            OkHttpUtil.RequestHandle handle = mHandle;
+            if (handle != null) {
+                handle.cancel();
+            }
+            cancelChildren(mChildren);
+        }
+        return canceled;
+    }
+
+    @Override
+    public void cancel() {
+        cancel(false);
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return isCancelled();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return isDone();
+    }
+
+    /**
+     * 并行请求的结果按传入顺序合并为列表；任意一个失败时整体以该异常结束，并取消其余请求
+     */
+    public static <T> HttpFuture<List<T>> all(final List<? extends CompletableFuture<? extends T>> futures) {
+        final HttpFuture<List<T>> result = new HttpFuture<>();
+        result.mChildren = futures;
+        if (futures.isEmpty()) {
+            result.complete(Collections.<T>emptyList());
+            return result;
+        }
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable error) {
+                    if (error != null) {
+                        if (result.completeExceptionally(unwrap(error))) {
+                            cancelChildren(futures);
+                        }
+                    } else if (remaining.decrementAndGet() == 0) {
+                        List<T> values = new ArrayList<>(futures.size());
+                        for (CompletableFuture<? extends T> done : futures) {
+                            values.add(done.join());
+                        }
+                        result.complete(values);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 对每个输入并行发起请求，结果按输入顺序合并，例如批量拉取剧集详情：
+     * HttpFuture.fanOut(episodeIds, id -> util.getAsync("/episode/" + id, null, Episode.class))
+     */
+    public static <A, T> HttpFuture<List<T>> fanOut(Collection<? extends A> inputs,
+                                                    Function<? super A, ? extends CompletableFuture<? extends T>> request) {
+        List<CompletableFuture<? extends T>> futures = new ArrayList<>(inputs.size());
+        for (A input : inputs) {
+            futures.add(request.apply(input));
+        }
+        return all(futures);
+    }
+
+    private static void cancelChildren(List<? extends CompletableFuture<?>> children) {
+        if (children == null) {
+            return;
+        }
+        for (CompletableFuture<?> child : children) {
+            child.cancel(false);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
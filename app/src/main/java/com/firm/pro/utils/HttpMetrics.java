@@ -0,0 +1,397 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 网络请求耗时统计
+ * 通过OkHttp EventListener记录每次调用的DNS、建连、TLS、首包、读取响应体和总耗时，
+ * 以及收发字节数和连接复用情况，按接口（方法+域名+路径）聚合为直方图，可随时获取p50/p95/p99快照
+ * 使用示例：OkHttpUtil.getInstance().getMetrics().dump()
+ */
+public class HttpMetrics implements EventListener.Factory {
+    private final Map<String, EndpointRecorder> mEndpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    /**
+     * 获取所有接口的统计快照，按请求次数降序
+     */
+    public List<EndpointStats> snapshot() {
+        List<EndpointStats> result = new ArrayList<>();
+        for (Map.Entry<String, EndpointRecorder> entry : mEndpoints.entrySet()) {
+            result.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        Collections.sort(result, new Comparator<EndpointStats>() {
+            @Override
+            public int compare(EndpointStats o1, EndpointStats o2) {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 导出为文本，每个接口一行，便于日志输出或上报
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (EndpointStats stats : snapshot()) {
+            sb.append(stats).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public void reset() {
+        mEndpoints.clear();
+    }
+
+    /**
+     * 接口标识：方法+域名+路径，路径中的数字或长ID段替换为{id}，避免维度爆炸
+     */
+    static String endpointOf(Request request) {
+        HttpUrl url = request.url();
+        StringBuilder sb = new StringBuilder(request.method()).append(' ').append(url.host());
+        for (String segment : url.pathSegments()) {
+            sb.append('/');
+            sb.append(isIdSegment(segment) ? "{id}" : segment);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdSegment(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        boolean allDigits = true;
+        boolean allHex = segment.length() >= 16;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            allDigits &= digit;
+            allHex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+        }
+        return allDigits || allHex;
+    }
+
+    private EndpointRecorder recorderFor(String endpoint) {
+        EndpointRecorder recorder = mEndpoints.get(endpoint);
+        if (recorder == null) {
+            EndpointRecorder created = new EndpointRecorder();
+            recorder = mEndpoints.putIfAbsent(endpoint, created);
+            if (recorder == null) {
+                recorder = created;
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * 单次调用的事件监听，每个Call一个实例
+     */
+    private class CallListener extends EventListener {
+        private long callStart;
+        private long dnsStart;
+        private long dnsNanos;
+        private long connectStart;
+        private long connectNanos;
+        private long secureStart;
+        private long tlsNanos;
+        private long requestEnd;
+        private long ttfbNanos = -1;
+        private long bodyStart;
+        private long bodyNanos;
+        private long bytesSent;
+        private long bytesReceived;
+        private boolean connected;
+        private boolean acquired;
+        private boolean cacheHit;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            dnsNanos += System.nanoTime() - dnsStart;
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+            connected = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsNanos += System.nanoTime() - secureStart;
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            connectNanos += System.nanoTime() - connectStart;
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            connectNanos += System.nanoTime() - connectStart;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquired = true;
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestEnd = System.nanoTime();
+            bytesSent += request.headers().byteCount();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestEnd = System.nanoTime();
+            bytesSent += byteCount;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            if (ttfbNanos < 0 && requestEnd > 0) {
+                ttfbNanos = System.nanoTime() - requestEnd;
+            }
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            bytesReceived += response.headers().byteCount();
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            bodyNanos += System.nanoTime() - bodyStart;
+            bytesReceived += byteCount;
+        }
+
+        @Override
+        public void cacheHit(Call call, Response response) {
+            cacheHit = true;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(call, false);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            record(call, true);
+        }
+
+        private void record(Call call, boolean failed) {
+            long totalNanos = System.nanoTime() - callStart;
+            EndpointRecorder recorder = recorderFor(endpointOf(call.request()));
+            recorder.count.incrementAndGet();
+            if (failed) {
+                recorder.failures.incrementAndGet();
+            }
+            if (cacheHit) {
+                recorder.cacheHits.incrementAndGet();
+            }
+            if (acquired && !connected) {
+                recorder.reusedConnections.incrementAndGet();
+            }
+            recorder.total.record(totalNanos);
+            if (ttfbNanos >= 0) {
+                recorder.ttfb.record(ttfbNanos);
+            }
+            recorder.dnsNanos.addAndGet(dnsNanos);
+            recorder.connectNanos.addAndGet(connectNanos);
+            recorder.tlsNanos.addAndGet(tlsNanos);
+            recorder.bodyNanos.addAndGet(bodyNanos);
+            recorder.bytesSent.addAndGet(bytesSent);
+            recorder.bytesReceived.addAndGet(bytesReceived);
+        }
+    }
+
+    /**
+     * 单个接口的累计数据，全部为无锁原子操作
+     */
+    private static class EndpointRecorder {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong reusedConnections = new AtomicLong();
+        final AtomicLong dnsNanos = new AtomicLong();
+        final AtomicLong connectNanos = new AtomicLong();
+        final AtomicLong tlsNanos = new AtomicLong();
+        final AtomicLong bodyNanos = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram ttfb = new LatencyHistogram();
+
+        EndpointStats snapshot(String endpoint) {
+            long n = count.get();
+            return new EndpointStats(endpoint, n, failures.get(), cacheHits.get(), reusedConnections.get(),
+                    total.percentileMillis(0.50), total.percentileMillis(0.95), total.percentileMillis(0.99),
+                    ttfb.percentileMillis(0.50), ttfb.percentileMillis(0.95),
+                    averageMillis(dnsNanos.get(), n), averageMillis(connectNanos.get(), n),
+                    averageMillis(tlsNanos.get(), n), averageMillis(bodyNanos.get(), n),
+                    bytesSent.get(), bytesReceived.get());
+        }
+
+        private static double averageMillis(long nanos, long n) {
+            return n == 0 ? 0 : nanos / 1e6 / n;
+        }
+    }
+
+    /**
+     * 对数分桶的耗时直方图，相邻桶边界相差25%，覆盖0.1ms~约3分钟，百分位误差不超过一个桶宽
+     */
+    static class LatencyHistogram {
+        private static final double MIN_MICROS = 100;
+        private static final double GROWTH = 1.25;
+        private static final int BUCKETS = 66;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mTotal = new AtomicLong();
+
+        void record(long nanos) {
+            double micros = nanos / 1000.0;
+            int bucket = 0;
+            if (micros > MIN_MICROS) {
+                bucket = (int) Math.ceil(Math.log(micros / MIN_MICROS) / Math.log(GROWTH));
+                bucket = Math.min(bucket, BUCKETS - 1);
+            }
+            mCounts.incrementAndGet(bucket);
+            mTotal.incrementAndGet();
+        }
+
+        /**
+         * @param percentile 0~1之间，如0.95
+         * @return 对应百分位所在桶的上边界（毫秒），没有数据时返回0
+         */
+        double percentileMillis(double percentile) {
+            long total = mTotal.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mCounts.get(i);
+                if (seen >= target) {
+                    return upperBoundMicros(i) / 1000.0;
+                }
+            }
+            return upperBoundMicros(BUCKETS - 1) / 1000.0;
+        }
+
+        private static double upperBoundMicros(int bucket) {
+            return MIN_MICROS * Math.pow(GROWTH, bucket);
+        }
+    }
+
+    /**
+     * 单个接口的统计快照
+     */
+    public static class EndpointStats {
+        public final String endpoint;
+        public final long count;
+        public final long failures;
+        public final long cacheHits;
+        // 复用已有连接（未新建连接）的次数
+        public final long reusedConnections;
+        // 总耗时百分位（毫秒）
+        public final double p50Millis;
+        public final double p95Millis;
+        public final double p99Millis;
+        // 首包耗时百分位（请求发送完成到收到响应头，毫秒）
+        public final double ttfbP50Millis;
+        public final double ttfbP95Millis;
+        // 各阶段平均耗时（毫秒，按调用次数平均，复用连接的调用计为0）
+        public final double avgDnsMillis;
+        public final double avgConnectMillis;
+        public final double avgTlsMillis;
+        public final double avgBodyReadMillis;
+        public final long bytesSent;
+        public final long bytesReceived;
+
+        EndpointStats(String endpoint, long count, long failures, long cacheHits, long reusedConnections,
+                      double p50Millis, double p95Millis, double p99Millis,
+                      double ttfbP50Millis, double ttfbP95Millis,
+                      double avgDnsMillis, double avgConnectMillis, double avgTlsMillis, double avgBodyReadMillis,
+                      long bytesSent, long bytesReceived) {
+            this.endpoint = endpoint;
+            this.count = count;
+            this.failures = failures;
+            this.cacheHits = cacheHits;
+            this.reusedConnections = reusedConnections;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+            this.ttfbP50Millis = ttfbP50Millis;
+            this.ttfbP95Millis = ttfbP95Millis;
+            this.avgDnsMillis = avgDnsMillis;
+            this.avgConnectMillis = avgConnectMillis;
+            this.avgTlsMillis = avgTlsMillis;
+            this.avgBodyReadMillis = avgBodyReadMillis;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s count=%d fail=%d cacheHit=%d reuse=%d p50=%.1fms p95=%.1fms p99=%.1fms"
+                            + " ttfbP50=%.1fms ttfbP95=%.1fms dns=%.1fms connect=%.1fms tls=%.1fms body=%.1fms"
+                            + " sent=%dB received=%dB",
+                    endpoint, count, failures, cacheHits, reusedConnections, p50Millis, p95Millis, p99Millis,
+                    ttfbP50Millis, ttfbP95Millis, avgDnsMillis, avgConnectMillis, avgTlsMillis, avgBodyReadMillis,
+                    bytesSent, bytesReceived);
+        }
+    }
+}
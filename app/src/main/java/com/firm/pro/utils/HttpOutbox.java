@@ -0,0 +1,555 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 可延迟POST请求的离线发件箱
+ * 请求先追加写入日志文件再发送，网络异常或服务端暂时不可用时保留在队列中，
+ * 网络恢复、回到前台或退避时间到达后按提交顺序逐条重发，进程重启后继续发送。
+ * 每条请求携带Idempotency-Key头，服务端据此去重（请求已到达但响应丢失时会重发）。
+ * 日志格式为每行一条JSON记录：add记录请求，ack记录已完成，已完成记录累计到一定数量后压缩日志文件
+ * 服务端持续返回可重试错误达到{@link #MAX_ATTEMPTS}次，或请求加入超过{@link #MAX_AGE_MILLIS}仍未成功时，
+ * 回调失败并移出队列，避免一条永久失败的请求阻塞后面所有请求
+ */
+class HttpOutbox {
+    private static final String TAG = HttpOutbox.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DIR_NAME = "http_outbox";
+    private static final String JOURNAL_NAME = "journal";
+    private static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String OP_ADD = "add";
+    private static final String OP_ACK = "ack";
+    // 已完成记录数达到该值且不少于待发送数时压缩日志
+    private static final int COMPACT_THRESHOLD = 32;
+    // 重发退避：首次5秒，逐次翻倍，最长5分钟
+    private static final long MIN_RETRY_DELAY_MILLIS = 5_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60_000;
+    // 单条请求收到可重试错误（408、429、5xx）的最大次数，网络不通不计入
+    static final int MAX_ATTEMPTS = 8;
+    // 请求最长保留时间，超过后不再发送
+    static final long MAX_AGE_MILLIS = 24 * 60 * 60_000L;
+
+    private final OkHttpClient mClient;
+    private final RequestScheduler mScheduler;
+    private final Gson mGson;
+    private final File mJournalFile;
+    private final File mTempFile;
+    // 日志读写、队列状态全部在该线程中访问，无需加锁
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HttpOutbox");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+    private final Map<String, Entry> mByKey = new HashMap<>();
+    private FileOutputStream mOut;
+    private Writer mWriter;
+    private long mNextId;
+    private int mAckedCount;
+    private Entry mInFlight;
+    private int mFailedAttempts;
+    private ScheduledFuture<?> mPendingRetry;
+
+    HttpOutbox(Context context, OkHttpClient client, RequestScheduler scheduler, Gson gson) {
+        this.mClient = client;
+        this.mScheduler = scheduler;
+        this.mGson = gson;
+        File dir = new File(context.getFilesDir(), DIR_NAME);
+        this.mJournalFile = new File(dir, JOURNAL_NAME);
+        this.mTempFile = new File(dir, JOURNAL_NAME + ".tmp");
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                drain();
+            }
+        });
+        registerNetworkCallback(context);
+        ForegroundTracker.addListener(new ForegroundTracker.Listener() {
+            @Override
+            public void onForegroundChanged(boolean foreground) {
+                if (foreground) {
+                    retryNow();
+                }
+            }
+        });
+    }
+
+    /**
+     * 加入发件箱，写入日志后立即尝试发送
+     * @param url 完整请求地址
+     * @param contentType 请求体类型
+     * @param body 请求体
+     * @param key 去重key，队列中已有相同key的请求时不重复加入，只追加回调；为null时自动生成
+     * @param executor 回调线程
+     * @return 请求句柄，取消只会停止回调，请求仍会发送
+     */
+    <T> OkHttpUtil.RequestHandle add(final String url, final String contentType, final String body, final String key,
+                                     ResponseParser<T> parser, OkHttpUtil.ObjectCallback<T> callback,
+                                     Executor executor) {
+        final Delivery<T> delivery = new Delivery<>(parser, callback, executor);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = key != null ? mByKey.get(key) : null;
+                if (entry == null) {
+                    Record record = new Record();
+                    record.op = OP_ADD;
+                    record.id = ++mNextId;
+                    record.key = key != null ? key : UUID.randomUUID().toString();
+                    record.url = url;
+                    record.contentType = contentType;
+                    record.body = body;
+                    record.createdAt = System.currentTimeMillis();
+                    try {
+                        append(record, true);
+                    } catch (IOException e) {
+                        // 写日志失败时仍在内存中发送，只是不能跨进程保留
+                        Log.e(TAG, "写入发件箱日志失败", e);
+                    }
+                    entry = new Entry(record);
+                    mQueue.add(entry);
+                    mByKey.put(entry.record.key, entry);
+                }
+                entry.deliveries.add(delivery);
+                drain();
+            }
+        });
+        return delivery;
+    }
+
+    /**
+     * 立即重发队列中的请求（如网络恢复时）
+     */
+    void retryNow() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mPendingRetry != null) {
+                    mPendingRetry.cancel(false);
+                    mPendingRetry = null;
+                }
+                mFailedAttempts = 0;
+                drain();
+            }
+        });
+    }
+
+    private void registerNetworkCallback(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        try {
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    retryNow();
+                }
+            });
+        } catch (RuntimeException e) {
+            // 部分机型注册过多回调或缺少权限时会抛异常，退化为仅靠退避重试
+            Log.w(TAG, "注册网络状态监听失败", e);
+        }
+    }
+
+    /**
+     * 发送队首请求，同一时间只有一条在发送，保证按提交顺序到达
+     */
+    private void drain() {
+        if (mInFlight != null || mPendingRetry != null) {
+            return;
+        }
+        dropExpired();
+        if (mQueue.isEmpty()) {
+            return;
+        }
+        final Entry entry = mQueue.peek();
+        mInFlight = entry;
+        Request request = new Request.Builder()
+                .url(entry.record.url)
+                .header(HEADER_IDEMPOTENCY_KEY, entry.record.key)
+                .post(RequestBody.create(MediaType.parse(entry.record.contentType), entry.record.body))
+                .build();
+        mScheduler.enqueue(mClient.newCall(request), new Callback() {
+            @Override
+            public void onFailure(Call call, final IOException e) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.w(TAG, "发件箱请求发送失败，稍后重试：" + e.getMessage());
+                        mInFlight = null;
+                        scheduleRetry();
+                    }
+                });
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                final int code = response.code();
+                byte[] bytes = null;
+                MediaType mediaType = null;
+                try {
+                    ResponseBody responseBody = response.body();
+                    if (responseBody != null) {
+                        mediaType = responseBody.contentType();
+                        bytes = responseBody.bytes();
+                    }
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                } finally {
+                    response.close();
+                }
+                final byte[] result = bytes;
+                final MediaType resultType = mediaType;
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResult(entry, code, result, resultType);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onResult(Entry entry, int code, byte[] body, MediaType contentType) {
+        mInFlight = null;
+        boolean retryable = code == 408 || code == 429 || code >= 500;
+        if (retryable && ++entry.attempts < MAX_ATTEMPTS) {
+            // 服务端暂时不可用，保留在队首稍后重发
+            scheduleRetry();
+            return;
+        }
+        mFailedAttempts = 0;
+        acknowledge(entry);
+        if (retryable) {
+            Log.w(TAG, "发件箱请求重试" + entry.attempts + "次仍失败，放弃：" + entry.record.url);
+        }
+        boolean success = code >= 200 && code < 300;
+        for (Delivery<?> delivery : entry.deliveries) {
+            if (success) {
+                delivery.deliverSuccess(body, contentType);
+            } else {
+                // 其余4xx重发也不会成功，直接回调失败
+                delivery.deliverFailure("请求失败，错误码：" + code);
+            }
+        }
+        drain();
+    }
+
+    private void scheduleRetry() {
+        if (mPendingRetry != null) {
+            return;
+        }
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, MIN_RETRY_DELAY_MILLIS << Math.min(mFailedAttempts, 10));
+        mFailedAttempts++;
+        mPendingRetry = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mPendingRetry = null;
+                drain();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 移除队首已过期的请求，回调失败
+     */
+    private void dropExpired() {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        while ((entry = mQueue.peek()) != null && now - entry.record.createdAt > MAX_AGE_MILLIS) {
+            Log.w(TAG, "发件箱请求已过期，放弃：" + entry.record.url);
+            acknowledge(entry);
+            for (Delivery<?> delivery : entry.deliveries) {
+                delivery.deliverFailure("请求已过期");
+            }
+        }
+    }
+
+    private void acknowledge(Entry entry) {
+        mQueue.remove(entry);
+        mByKey.remove(entry.record.key);
+        Record record = new Record();
+        record.op = OP_ACK;
+        record.id = entry.record.id;
+        try {
+            // ack丢失只会导致重发，服务端按key去重，无需强制落盘
+            append(record, false);
+            mAckedCount++;
+            if (mAckedCount >= COMPACT_THRESHOLD && mAckedCount >= mQueue.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "写入发件箱日志失败", e);
+        }
+    }
+
+    /**
+     * 读取日志，恢复未完成的请求
+     */
+    private void load() {
+        Map<Long, Entry> pending = new LinkedHashMap<>();
+        boolean dirty = false;
+        if (mJournalFile.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Record record;
+                    try {
+                        record = mGson.fromJson(line, Record.class);
+                    } catch (JsonParseException e) {
+                        record = null;
+                    }
+                    if (record == null || record.op == null) {
+                        // 写入过程中进程被杀会留下不完整的最后一行
+                        dirty = true;
+                        break;
+                    }
+                    mNextId = Math.max(mNextId, record.id);
+                    if (OP_ADD.equals(record.op)) {
+                        if (record.createdAt == 0) {
+                            // 旧版本日志没有加入时间，从现在开始计算有效期
+                            record.createdAt = System.currentTimeMillis();
+                        }
+                        pending.put(record.id, new Entry(record));
+                    } else {
+                        pending.remove(record.id);
+                        dirty = true;
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "读取发件箱日志失败", e);
+                dirty = true;
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+        for (Entry entry : pending.values()) {
+            mQueue.add(entry);
+            mByKey.put(entry.record.key, entry);
+        }
+        try {
+            if (dirty) {
+                compact();
+            } else {
+                openWriter();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "打开发件箱日志失败", e);
+        }
+        if (!mQueue.isEmpty()) {
+            Log.d(TAG, "发件箱恢复待发送请求：" + mQueue.size());
+        }
+    }
+
+    /**
+     * 只保留未完成的请求重写日志，写入临时文件后替换，过程中被打断不会丢数据
+     */
+    private void compact() throws IOException {
+        closeQuietly(mWriter);
+        mWriter = null;
+        mOut = null;
+        FileOutputStream out = new FileOutputStream(mTempFile);
+        try {
+            Writer writer = new OutputStreamWriter(out, UTF_8);
+            for (Entry entry : mQueue) {
+                writer.write(mGson.toJson(entry.record));
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            closeQuietly(out);
+        }
+        if (!mTempFile.renameTo(mJournalFile)) {
+            throw new IOException("rename " + mTempFile + " failed");
+        }
+        mAckedCount = 0;
+        openWriter();
+    }
+
+    private void openWriter() throws IOException {
+        File dir = mJournalFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("mkdirs " + dir + " failed");
+        }
+        mOut = new FileOutputStream(mJournalFile, true);
+        mWriter = new OutputStreamWriter(mOut, UTF_8);
+    }
+
+    /**
+     * 追加一条记录
+     * @param sync 是否强制落盘，新请求需要落盘保证不丢
+     */
+    private void append(Record record, boolean sync) throws IOException {
+        if (mWriter == null) {
+            openWriter();
+        }
+        mWriter.write(mGson.toJson(record));
+        mWriter.write('\n');
+        mWriter.flush();
+        if (sync) {
+            mOut.getFD().sync();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 日志记录，add记录包含完整请求，ack记录只有id
+     */
+    private static class Record {
+        String op;
+        long id;
+        String key;
+        String url;
+        String contentType;
+        String body;
+        // 加入时间（毫秒时间戳），用于判断是否过期
+        long createdAt;
+    }
+
+    private static class Entry {
+        final Record record;
+        // 本进程内等待结果的回调，进程重启后恢复的请求没有回调
+        final List<Delivery<?>> deliveries = new ArrayList<>();
+        // 本进程内收到可重试错误的次数
+        int attempts;
+
+        Entry(Record record) {
+            this.record = record;
+        }
+    }
+
+    /**
+     * 单个调用方的回调，同时作为请求句柄
+     */
+    private static class Delivery<T> implements OkHttpUtil.RequestHandle {
+        private final ResponseParser<T> parser;
+        private final OkHttpUtil.ObjectCallback<T> callback;
+        private final Executor executor;
+        private volatile boolean canceled;
+        private volatile boolean finished;
+
+        Delivery(ResponseParser<T> parser, OkHttpUtil.ObjectCallback<T> callback, Executor executor) {
+            this.parser = parser;
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        void deliverSuccess(byte[] body, MediaType contentType) {
+            if (callback == null) {
+                finished = true;
+                return;
+            }
+            if (canceled) {
+                return;
+            }
+            final T data;
+            try {
+                data = body != null ? parser.parse(ResponseBody.create(contentType, body)) : null;
+            } catch (IOException e) {
+                deliverFailure(e.getMessage());
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    // 回调送达时才标记结束，避免被RequestScope提前清理后取消不到
+                    finished = true;
+                    callback.onSuccess(data);
+                }
+            });
+        }
+
+        void deliverFailure(final String errorMsg) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    finished = true;
+                    if (callback != null) {
+                        callback.onFailure(errorMsg);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            // 请求已持久化，取消只停止回调
+            canceled = true;
+            finished = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
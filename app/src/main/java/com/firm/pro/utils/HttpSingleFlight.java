@@ -0,0 +1,193 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 相同请求合并（single-flight）
+ * 相同请求在途时只发起一次网络调用，响应体只解析一次并分发给所有调用方；
+ * 单个调用方取消只会移除自己，所有调用方都取消后才真正取消网络请求
+ */
+class HttpSingleFlight {
+    private final Call.Factory mCallFactory;
+    private final RequestScheduler mScheduler;
+    // 在途请求，key为请求方法+URL+缓存控制+解析类型
+    private final Map<String, Flight<?>> mFlights = new HashMap<>();
+
+    HttpSingleFlight(Call.Factory callFactory, RequestScheduler scheduler) {
+        this.mCallFactory = callFactory;
+        this.mScheduler = scheduler;
+    }
+
+    /**
+     * 发起请求，若已有相同请求在途则直接加入等待
+     * @param request 请求
+     * @param parser 响应体解析器，解析结果在所有调用方之间共享
+     * @param listener 结果监听，在OkHttp工作线程回调
+     * @return 当前调用方的请求句柄，取消不影响其他调用方
+     */
+    @SuppressWarnings("unchecked")
+    <T> OkHttpUtil.RequestHandle enqueue(Request request, ResponseParser<T> parser, Listener<T> listener) {
+        String key = keyOf(request, parser);
+        Flight<T> flight;
+        Subscriber<T> subscriber;
+        boolean isNew = false;
+        boolean promote = false;
+        synchronized (mFlights) {
+            // 相同key一定使用相同类型的解析器
+            flight = (Flight<T>) mFlights.get(key);
+            if (flight == null) {
+                flight = new Flight<>(key, mCallFactory.newCall(request), parser);
+                mFlights.put(key, flight);
+                isNew = true;
+            } else {
+                // 更高优先级的调用方加入时，提升仍在排队的请求
+                promote = RequestScheduler.priorityOf(flight.call).compareTo(priorityOf(request)) > 0;
+            }
+            subscriber = new Subscriber<>(flight, listener);
+            flight.subscribers.add(subscriber);
+        }
+        if (isNew) {
+            mScheduler.enqueue(flight.call, flight);
+        } else if (promote) {
+            mScheduler.promote(flight.call, priorityOf(request));
+        }
+        return subscriber;
+    }
+
+    private static OkHttpUtil.Priority priorityOf(Request request) {
+        OkHttpUtil.Priority priority = request.tag(OkHttpUtil.Priority.class);
+        return priority != null ? priority : OkHttpUtil.Priority.INTERACTIVE;
+    }
+
+    private static String keyOf(Request request, ResponseParser<?> parser) {
+        return request.method() + " " + request.url() + " " + request.cacheControl() + " " + parser.key();
+    }
+
+    /**
+     * 合并请求的结果监听
+     */
+    interface Listener<T> {
+        /**
+         * @param code HTTP状态码
+         * @param result 解析结果，仅在2xx时有值
+         */
+        void onResponse(int code, T result);
+
+        void onFailure(IOException e);
+    }
+
+    /**
+     * 一次真实的网络调用及其所有等待者
+     */
+    private class Flight<T> implements Callback {
+        final String key;
+        final Call call;
+        final ResponseParser<T> parser;
+        final List<Subscriber<T>> subscribers = new ArrayList<>();
+
+        Flight(String key, Call call, ResponseParser<T> parser) {
+            this.key = key;
+            this.call = call;
+            this.parser = parser;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            for (Subscriber<T> subscriber : complete()) {
+                subscriber.listener.onFailure(e);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            int code = response.code();
+            T result = null;
+            try {
+                // 响应体只解析一次，所有调用方共享
+                if (response.isSuccessful()) {
+                    result = parser.parse(response.body());
+                }
+            } catch (IOException e) {
+                onFailure(call, e);
+                return;
+            } finally {
+                response.close();
+            }
+            for (Subscriber<T> subscriber : complete()) {
+                subscriber.listener.onResponse(code, result);
+            }
+        }
+
+        /**
+         * 请求结束，从在途表移除并取出仍在等待的调用方
+         */
+        private List<Subscriber<T>> complete() {
+            synchronized (mFlights) {
+                if (mFlights.get(key) == this) {
+                    mFlights.remove(key);
+                }
+                List<Subscriber<T>> result = new ArrayList<>(subscribers);
+                subscribers.clear();
+                for (Subscriber<T> subscriber : result) {
+                    subscriber.finished = true;
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * 单个调用方
+     */
+    private class Subscriber<T> implements OkHttpUtil.RequestHandle {
+        final Flight<T> flight;
+        final Listener<T> listener;
+        private volatile boolean canceled;
+        private volatile boolean finished;
+
+        Subscriber(Flight<T> flight, Listener<T> listener) {
+            this.flight = flight;
+            this.listener = listener;
+        }
+
+        @Override
+        public void cancel() {
+            boolean cancelCall = false;
+            synchronized (mFlights) {
+                if (canceled) {
+                    return;
+                }
+                canceled = true;
+                finished = true;
+                flight.subscribers.remove(this);
+                // 最后一个调用方也取消了，才真正取消网络请求
+                if (flight.subscribers.isEmpty() && mFlights.get(flight.key) == flight) {
+                    mFlights.remove(flight.key);
+                    cancelCall = true;
+                }
+            }
+            if (cancelCall) {
+                flight.call.cancel();
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
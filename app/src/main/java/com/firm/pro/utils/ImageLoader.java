@@ -0,0 +1,528 @@
+package com.firm.pro.utils;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.firm.pro.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 图片加载工具类（封面、头像等）
+ * 1. 内存缓存：按解码后字节数限制大小的LRU，默认占应用可用堆内存的1/8
+ * 2. 磁盘缓存：基于OkHttp Cache，服务端未返回缓存头时默认缓存7天
+ * 3. 解码时按目标View尺寸降采样，不透明的JPEG使用RGB_565
+ * 4. 从内存缓存淘汰且不再显示的Bitmap进入复用池，解码时通过inBitmap复用，减少滑动列表时的GC
+ * 5. 相同地址和尺寸的并发请求只下载解码一次，View被复用时自动取消旧请求
+ * 6. 使用独立的调度器和并发上限，图片请求不占用接口请求的名额，预加载优先级低于屏幕内图片
+ * 使用示例：
+ * ImageLoader.getInstance().load(url, imageView, R.drawable.placeholder);
+ * 注意：load/clear/trimMemory需在主线程调用
+ */
+public class ImageLoader {
+    private static final String TAG = ImageLoader.class.getSimpleName();
+    private static final String DISK_CACHE_DIR = "image_cache";
+    private static final long DISK_CACHE_SIZE = 50 * 1024 * 1024;
+    // 服务端未返回缓存头时的默认缓存时长（秒）
+    private static final int DEFAULT_MAX_AGE = 7 * 24 * 3600;
+    // 屏幕内图片及预加载的并发上限
+    private static final int VISIBLE_CONCURRENCY = 4;
+    private static final int PRELOAD_CONCURRENCY = 2;
+    private static volatile ImageLoader sInstance;
+
+    private final OkHttpClient mClient;
+    // 屏幕内图片使用INTERACTIVE，预加载使用PREFETCH，不使用BACKGROUND
+    private final RequestScheduler mScheduler;
+    private final MemoryCache mMemoryCache;
+    private final BitmapPool mPool;
+    // 进行中的请求，key为地址+目标尺寸，只在主线程访问
+    private final Map<String, Pending> mPending = new LinkedHashMap<>();
+    private final int mScreenWidth;
+    private final int mScreenHeight;
+
+    private ImageLoader(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = (long) am.getMemoryClass() * 1024 * 1024;
+        mMemoryCache = new MemoryCache(heapBytes / 8);
+        mPool = new BitmapPool(heapBytes / 16);
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        mScreenWidth = metrics.widthPixels;
+        mScreenHeight = metrics.heightPixels;
+
+        // 共享连接池和Dispatcher，但不经过token、重试等业务拦截器，使用独立的磁盘缓存
+        mClient = OkHttpUtil.getInstance().bareClientBuilder()
+                .cache(new Cache(new File(context.getCacheDir(), DISK_CACHE_DIR), DISK_CACHE_SIZE))
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        Response response = chain.proceed(chain.request());
+                        // 只给成功的响应补缓存头，404等错误响应不能被缓存整个默认时长
+                        if (response.isSuccessful()
+                                && response.header("Cache-Control") == null && response.header("Expires") == null) {
+                            return response.newBuilder()
+                                    .header("Cache-Control", "public, max-age=" + DEFAULT_MAX_AGE)
+                                    .build();
+                        }
+                        return response;
+                    }
+                })
+                .build();
+        mScheduler = new RequestScheduler(VISIBLE_CONCURRENCY, PRELOAD_CONCURRENCY, 0);
+        ForegroundTracker.addListener(new ForegroundTracker.Listener() {
+            @Override
+            public void onForegroundChanged(boolean foreground) {
+                // 进入后台时丢弃排队中的预加载
+                mScheduler.setAppInBackground(!foreground);
+            }
+        });
+    }
+
+    /**
+     * 在Application中初始化，必须在OkHttpUtil之后初始化
+     */
+    public static void init(Context context) {
+        if (sInstance == null) {
+            synchronized (ImageLoader.class) {
+                if (sInstance == null) {
+                    sInstance = new ImageLoader(context.getApplicationContext());
+                }
+            }
+        }
+    }
+
+    public static ImageLoader getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException("ImageLoader未初始化，请在Application中调用init()");
+        }
+        return sInstance;
+    }
+
+    /**
+     * 加载图片到ImageView，加载期间不显示内容
+     */
+    public void load(String url, ImageView view) {
+        load(url, view, 0);
+    }
+
+    /**
+     * 加载图片到ImageView
+     * @param placeholder 加载期间显示的占位图资源，0表示不显示
+     */
+    public void load(String url, ImageView view, int placeholder) {
+        Target target = targetOf(view);
+        int width = targetWidth(view);
+        int height = targetHeight(view);
+        String key = url + '@' + width + 'x' + height;
+        if (key.equals(target.key) && (target.shown != null || target.pending != null)) {
+            return;
+        }
+        target.reset();
+        target.key = key;
+
+        Resource cached = mMemoryCache.get(key);
+        if (cached != null) {
+            target.show(cached);
+            return;
+        }
+        if (placeholder != 0) {
+            view.setImageResource(placeholder);
+        }
+        Pending pending = mPending.get(key);
+        if (pending == null) {
+            pending = start(key, url, width, height, OkHttpUtil.Priority.INTERACTIVE);
+        }
+        pending.targets.add(target);
+        target.pending = pending;
+    }
+
+    /**
+     * 预加载图片到内存缓存，如列表即将滑入屏幕的封面
+     */
+    public void preload(String url, int width, int height) {
+        String key = url + '@' + width + 'x' + height;
+        if (mMemoryCache.get(key) == null && !mPending.containsKey(key)) {
+            start(key, url, width, height, OkHttpUtil.Priority.PREFETCH).preload = true;
+        }
+    }
+
+    /**
+     * 取消ImageView上的请求并清空显示的图片，列表项回收时调用可让Bitmap尽早进入复用池
+     */
+    public void clear(ImageView view) {
+        Object tag = view.getTag(R.id.image_loader_target);
+        if (tag instanceof Target) {
+            ((Target) tag).reset();
+        }
+    }
+
+    /**
+     * 清空内存缓存和复用池
+     */
+    public void clearMemory() {
+        mMemoryCache.trimToSize(0);
+        mPool.clear();
+    }
+
+    /**
+     * 响应系统内存回调，在Application.onTrimMemory中调用
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            // 进入后台缓存列表，释放全部，降低被系统回收的概率
+            clearMemory();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mMemoryCache.trimToSize(mMemoryCache.maxBytes / 2);
+            mPool.clear();
+        }
+    }
+
+    private Target targetOf(ImageView view) {
+        Object tag = view.getTag(R.id.image_loader_target);
+        if (tag instanceof Target) {
+            return (Target) tag;
+        }
+        Target target = new Target(view);
+        view.setTag(R.id.image_loader_target, target);
+        return target;
+    }
+
+    /**
+     * 目标宽度：已布局时取实际宽度，否则取LayoutParams中的固定宽度，都没有时按屏幕宽度
+     */
+    private int targetWidth(ImageView view) {
+        if (view.getWidth() > 0) {
+            return view.getWidth();
+        }
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        return params != null && params.width > 0 ? params.width : mScreenWidth;
+    }
+
+    private int targetHeight(ImageView view) {
+        if (view.getHeight() > 0) {
+            return view.getHeight();
+        }
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        return params != null && params.height > 0 ? params.height : mScreenHeight;
+    }
+
+    private Pending start(final String key, String url, final int width, final int height, OkHttpUtil.Priority priority) {
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(OkHttpUtil.Priority.class, priority)
+                .build();
+        final Pending pending = new Pending(key, mClient.newCall(request));
+        mPending.put(key, pending);
+        mScheduler.enqueue(pending.call, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "图片加载失败：" + e.getMessage());
+                finish(pending, null);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                Bitmap bitmap = null;
+                try {
+                    ResponseBody body = response.body();
+                    if (response.isSuccessful() && body != null) {
+                        bitmap = decode(body.bytes(), width, height);
+                    } else {
+                        Log.w(TAG, "图片加载失败：" + response.code());
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "图片加载失败：" + e.getMessage());
+                } catch (OutOfMemoryError e) {
+                    Log.e(TAG, "图片解码内存不足，清空图片缓存", e);
+                    UIUtils.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            clearMemory();
+                        }
+                    });
+                } finally {
+                    response.close();
+                }
+                finish(pending, bitmap);
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * 在下一帧把结果交给等待的View，同一帧内完成的多张图片一起设置
+     */
+    private void finish(final Pending pending, final Bitmap bitmap) {
+        UIUtils.runOnNextFrame(new Runnable() {
+            @Override
+            public void run() {
+                if (mPending.get(pending.key) == pending) {
+                    mPending.remove(pending.key);
+                }
+                if (bitmap == null || pending.canceled) {
+                    // 解除等待中的View，失败后再次load同一地址时可以重新请求
+                    for (Target target : pending.targets) {
+                        target.pending = null;
+                    }
+                    pending.targets.clear();
+                    if (bitmap != null) {
+                        mPool.put(bitmap);
+                    }
+                    return;
+                }
+                Resource resource = new Resource(bitmap);
+                mMemoryCache.put(pending.key, resource);
+                for (Target target : pending.targets) {
+                    target.pending = null;
+                    target.show(resource);
+                }
+                pending.targets.clear();
+                release(resource);
+            }
+        });
+    }
+
+    /**
+     * 按目标尺寸降采样解码，优先复用池中的Bitmap
+     */
+    private Bitmap decode(byte[] data, int width, int height) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("无法识别的图片格式");
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        // JPEG没有透明通道，RGB_565占用内存减半
+        options.inPreferredConfig = "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        options.inBitmap = mPool.get(sampledWidth, sampledHeight, options.inPreferredConfig);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不满足解码要求，放回池中重新解码
+            if (options.inBitmap == null) {
+                throw new IOException("图片解码失败", e);
+            }
+            mPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("图片解码失败");
+        }
+        return bitmap;
+    }
+
+    /**
+     * 释放一次引用，既不在内存缓存中也没有View显示时进入复用池
+     */
+    private void release(Resource resource) {
+        resource.refs--;
+        if (resource.refs == 0 && !resource.cached) {
+            mPool.put(resource.bitmap);
+        }
+    }
+
+    /**
+     * 解码后的图片及其引用计数，只在主线程访问
+     * 持有者：内存缓存（cached）、正在显示它的View（refs）
+     */
+    private static class Resource {
+        final Bitmap bitmap;
+        final int bytes;
+        int refs = 1;
+        boolean cached;
+
+        Resource(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.bytes = bitmap.getAllocationByteCount();
+        }
+    }
+
+    /**
+     * 绑定在ImageView上的加载状态，View被复用时据此取消旧请求、释放旧图片
+     */
+    private class Target {
+        final ImageView view;
+        String key;
+        Resource shown;
+        Pending pending;
+
+        Target(ImageView view) {
+            this.view = view;
+        }
+
+        void show(Resource resource) {
+            resource.refs++;
+            shown = resource;
+            view.setImageBitmap(resource.bitmap);
+        }
+
+        void reset() {
+            if (pending != null) {
+                pending.targets.remove(this);
+                if (pending.targets.isEmpty() && !pending.preload) {
+                    pending.canceled = true;
+                    pending.call.cancel();
+                    mPending.remove(pending.key);
+                }
+                pending = null;
+            }
+            if (shown != null) {
+                // 先解除显示再释放，避免复用中的Bitmap被绘制
+                view.setImageDrawable(null);
+                release(shown);
+                shown = null;
+            }
+            key = null;
+        }
+    }
+
+    /**
+     * 进行中的请求，等待同一张图片的View都挂在targets上
+     */
+    private static class Pending {
+        final String key;
+        final Call call;
+        final List<Target> targets = new ArrayList<>();
+        boolean preload;
+        volatile boolean canceled;
+
+        Pending(String key, Call call) {
+            this.key = key;
+            this.call = call;
+        }
+    }
+
+    /**
+     * 按字节数限制大小的LRU内存缓存，只在主线程访问
+     */
+    private class MemoryCache {
+        final long maxBytes;
+        private final LinkedHashMap<String, Resource> mMap = new LinkedHashMap<>(16, 0.75f, true);
+        private long mSize;
+
+        MemoryCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        Resource get(String key) {
+            return mMap.get(key);
+        }
+
+        void put(String key, Resource resource) {
+            // 超过缓存一半的大图不缓存，避免一张图清空整个缓存
+            if (resource.bytes > maxBytes / 2) {
+                return;
+            }
+            Resource previous = mMap.put(key, resource);
+            if (previous != null) {
+                mSize -= previous.bytes;
+                evicted(previous);
+            }
+            resource.cached = true;
+            mSize += resource.bytes;
+            trimToSize(maxBytes);
+        }
+
+        void trimToSize(long size) {
+            Iterator<Resource> iterator = mMap.values().iterator();
+            while (mSize > size && iterator.hasNext()) {
+                Resource eldest = iterator.next();
+                iterator.remove();
+                mSize -= eldest.bytes;
+                evicted(eldest);
+            }
+        }
+
+        private void evicted(Resource resource) {
+            resource.cached = false;
+            if (resource.refs == 0) {
+                mPool.put(resource.bitmap);
+            }
+        }
+    }
+
+    /**
+     * Bitmap复用池，按字节数限制大小，解码线程和主线程都会访问
+     */
+    private static class BitmapPool {
+        private final long mMaxBytes;
+        // 按放入顺序排列，超出容量时先丢弃最早放入的
+        private final List<Bitmap> mBitmaps = new ArrayList<>();
+        private long mSize;
+
+        BitmapPool(long maxBytes) {
+            this.mMaxBytes = maxBytes;
+        }
+
+        synchronized void put(Bitmap bitmap) {
+            if (bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getAllocationByteCount() > mMaxBytes / 2) {
+                return;
+            }
+            mBitmaps.add(bitmap);
+            mSize += bitmap.getAllocationByteCount();
+            while (mSize > mMaxBytes) {
+                mSize -= mBitmaps.remove(0).getAllocationByteCount();
+            }
+        }
+
+        /**
+         * 取出能容纳指定尺寸的最小Bitmap，过大（超过4倍）的不复用以免浪费内存
+         */
+        synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+            long needed = (long) width * height * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+            int best = -1;
+            for (int i = 0; i < mBitmaps.size(); i++) {
+                Bitmap candidate = mBitmaps.get(i);
+                int bytes = candidate.getAllocationByteCount();
+                if (candidate.getConfig() == config && bytes >= needed && bytes <= needed * 4
+                        && (best < 0 || bytes < mBitmaps.get(best).getAllocationByteCount())) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                return null;
+            }
+            Bitmap bitmap = mBitmaps.remove(best);
+            mSize -= bitmap.getAllocationByteCount();
+            return bitmap;
+        }
+
+        synchronized void clear() {
+            mBitmaps.clear();
+            mSize = 0;
+        }
+    }
+}
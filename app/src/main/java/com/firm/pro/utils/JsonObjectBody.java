@@ -0,0 +1,72 @@
+package com.firm.pro.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * 对象请求体，由Gson直接序列化为UTF-8字节，不生成中间JSON字符串
+ * 首次需要长度或内容时（OkHttp工作线程）序列化一次并缓存，请求带准确的Content-Length而不是分块发送，
+ * gzip压缩阈值也按序列化后的大小判断，重试时直接复用
+ * 注意：序列化发生在发送时，提交后不要再修改对象
+ */
+class JsonObjectBody extends RequestBody {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson mGson;
+    private final Object mObject;
+    // 序列化结果，首次使用时生成
+    private ByteString mBytes;
+
+    JsonObjectBody(Gson gson, Object object) {
+        this.mGson = gson;
+        this.mObject = object;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return bytes().size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(bytes());
+    }
+
+    private synchronized ByteString bytes() throws IOException {
+        if (mBytes == null) {
+            Buffer buffer = new Buffer();
+            Writer writer = new OutputStreamWriter(buffer.outputStream(), UTF_8);
+            JsonWriter jsonWriter = mGson.newJsonWriter(writer);
+            try {
+                if (mObject == null) {
+                    jsonWriter.nullValue();
+                } else {
+                    mGson.toJson(mObject, mObject.getClass(), jsonWriter);
+                }
+            } catch (JsonIOException e) {
+                throw new IOException("数据序列化失败：" + e.getMessage(), e);
+            }
+            jsonWriter.close();
+            mBytes = buffer.readByteString();
+        }
+        return mBytes;
+    }
+}
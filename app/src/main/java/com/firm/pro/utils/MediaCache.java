@@ -0,0 +1,291 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import okio.ByteString;
+
+/**
+ * 短剧视频分片磁盘缓存，按最近使用顺序淘汰，总大小不超过上限
+ * 缓存内容可以是完整的分片（如HLS的ts文件），也可以是视频文件的开头部分（预加载的前几秒），
+ * 文件名为URL的md5，完整文件无后缀，开头部分以.prefix结尾。
+ * 启动时在后台线程扫描缓存目录，扫描期间不持有索引的锁，查询按"未缓存"处理，不会阻塞播放器和主线程
+ */
+public class MediaCache {
+    private static final String TAG = MediaCache.class.getSimpleName();
+    private static final String DIR_NAME = "media_cache";
+    private static final String PREFIX_SUFFIX = ".prefix";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // 默认缓存上限：200MB
+    private static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+
+    private static volatile MediaCache sInstance;
+    // 扫描目录、记录访问时间等磁盘操作，不占用查询线程
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "MediaCache-io");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File mDir;
+    private final long mMaxBytes;
+    // 按访问顺序排列，最久未使用的在最前面，只在同步块中访问
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    // 扫描完成前调用了clear()，扫描结果全部丢弃
+    private boolean mCleared;
+
+    private MediaCache(File dir, long maxBytes) {
+        this.mDir = dir;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 在Application中初始化，缓存目录在后台线程扫描，不阻塞启动
+     */
+    public static void init(Context context) {
+        init(context, DEFAULT_MAX_BYTES);
+    }
+
+    public static void init(Context context, long maxBytes) {
+        if (sInstance == null) {
+            synchronized (MediaCache.class) {
+                if (sInstance == null) {
+                    final MediaCache cache = new MediaCache(
+                            new File(context.getApplicationContext().getCacheDir(), DIR_NAME), maxBytes);
+                    sInstance = cache;
+                    IO.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            cache.load();
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    public static MediaCache getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException("MediaCache not initialized! Please call init() in your Application class first.");
+        }
+        return sInstance;
+    }
+
+    /**
+     * 获取已缓存的完整分片
+     * @return 缓存文件，没有时返回null
+     */
+    public File getComplete(String url) {
+        Entry entry = touch(url);
+        return entry != null && entry.complete ? entry.file : null;
+    }
+
+    /**
+     * 获取已缓存的内容（完整分片或视频开头部分），播放器可先从该文件读取，读完后再从网络续读
+     * @return 缓存文件，没有时返回null
+     */
+    public File get(String url) {
+        Entry entry = touch(url);
+        return entry != null ? entry.file : null;
+    }
+
+    /**
+     * 已缓存的字节数，没有缓存时返回0
+     */
+    public synchronized long cachedLength(String url) {
+        Entry entry = mEntries.get(keyOf(url));
+        return entry != null ? entry.length : 0;
+    }
+
+    /**
+     * 是否已缓存完整内容
+     */
+    public synchronized boolean isComplete(String url) {
+        Entry entry = mEntries.get(keyOf(url));
+        return entry != null && entry.complete;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        mCleared = true;
+        for (Entry entry : mEntries.values()) {
+            entry.file.delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * 创建写入用的临时文件，写完后调用{@link #commit}
+     */
+    File newTempFile(String url) {
+        mDir.mkdirs();
+        return new File(mDir, keyOf(url) + "." + System.nanoTime() + TEMP_SUFFIX);
+    }
+
+    /**
+     * 写入完成，临时文件移入缓存；已有更完整的缓存时丢弃本次写入
+     * @param complete 是否为完整内容
+     */
+    synchronized void commit(String url, File temp, boolean complete) {
+        String key = keyOf(url);
+        long length = temp.length();
+        Entry old = mEntries.get(key);
+        if (old != null && (old.complete || old.length >= length)) {
+            temp.delete();
+            return;
+        }
+        File file = new File(mDir, complete ? key : key + PREFIX_SUFFIX);
+        if (old != null) {
+            remove(key, old);
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "写入缓存失败：" + file);
+            temp.delete();
+            return;
+        }
+        mEntries.put(key, new Entry(file, length, complete));
+        mSize += length;
+        trimToSize(mMaxBytes);
+    }
+
+    private Entry touch(String url) {
+        String key = keyOf(url);
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.file.exists()) {
+            // 文件被系统清理了缓存目录
+            synchronized (this) {
+                if (mEntries.get(key) == entry) {
+                    remove(key, entry);
+                }
+            }
+            return null;
+        }
+        // 记录访问时间，重启后按该时间恢复淘汰顺序
+        final File file = entry.file;
+        IO.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.setLastModified(System.currentTimeMillis());
+            }
+        });
+        return entry;
+    }
+
+    private void remove(String key, Entry entry) {
+        mEntries.remove(key);
+        mSize -= entry.length;
+        entry.file.delete();
+    }
+
+    private void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mSize -= entry.length;
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * 扫描缓存目录，按最后访问时间恢复顺序，并删除残留的临时文件。
+     * 在IO线程执行，扫描时不持锁，最后合并到索引，扫描期间新写入的缓存优先
+     */
+    private void load() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        LinkedHashMap<String, Entry> scanned = new LinkedHashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            boolean complete = !name.endsWith(PREFIX_SUFFIX);
+            String key = complete ? name : name.substring(0, name.length() - PREFIX_SUFFIX.length());
+            Entry old = scanned.get(key);
+            if (old != null) {
+                // 同时存在完整文件和开头部分时保留完整文件
+                if (old.complete) {
+                    file.delete();
+                    continue;
+                }
+                scanned.remove(key);
+                old.file.delete();
+            }
+            scanned.put(key, new Entry(file, file.length(), complete));
+        }
+        synchronized (this) {
+            if (mCleared) {
+                for (Entry entry : scanned.values()) {
+                    entry.file.delete();
+                }
+                return;
+            }
+            // 扫描出的旧记录排在前面，本次启动后写入的记录排在后面
+            LinkedHashMap<String, Entry> recent = new LinkedHashMap<>(mEntries);
+            mEntries.clear();
+            for (Map.Entry<String, Entry> item : scanned.entrySet()) {
+                Entry newer = recent.get(item.getKey());
+                if (newer == null) {
+                    mEntries.put(item.getKey(), item.getValue());
+                } else if (!newer.file.equals(item.getValue().file)) {
+                    item.getValue().file.delete();
+                }
+            }
+            mEntries.putAll(recent);
+            mSize = 0;
+            for (Entry entry : mEntries.values()) {
+                mSize += entry.length;
+            }
+            trimToSize(mMaxBytes);
+        }
+    }
+
+    private static String keyOf(String url) {
+        return ByteString.encodeUtf8(url).md5().hex();
+    }
+
+    private static class Entry {
+        final File file;
+        final long length;
+        final boolean complete;
+
+        Entry(File file, long length, boolean complete) {
+            this.file = file;
+            this.length = length;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * 短剧预加载：切换到某一集时预先缓存后面几集的开头部分，滑到下一集时可以直接从本地起播
+ * 预加载数量和时长随网络类型调整（Wi-Fi多、移动网络少、省流模式最少），
+ * 切换剧集时取消不再需要的预加载，使用PREFETCH优先级，应用进入后台时排队中的预加载会被丢弃。
+ * 使用示例（在页面切换回调中）：
+ * prefetcher.onEpisodeSelected(episodeUrls, position);
+ * 页面销毁时调用{@link #cancelAll()}
+ */
+public class MediaPrefetcher {
+    private static final String TAG = MediaPrefetcher.class.getSimpleName();
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+    private static final long READ_SIZE = 64 * 1024;
+
+    private final Context mContext;
+    // 不经过业务拦截器、不读写HTTP缓存的客户端，数据只写入MediaCache
+    private final OkHttpClient mClient;
+    // 正在预加载的地址，只在同步块中访问
+    private final Map<String, Call> mRunning = new HashMap<>();
+    // 视频码率估算，用于把预加载时长换算为字节数
+    private volatile int mBitrateKbps = 2000;
+
+    public MediaPrefetcher(Context context) {
+        this.mContext = context.getApplicationContext();
+        this.mClient = OkHttpUtil.getInstance().bareClientBuilder()
+                .cache(null)
+                .build();
+    }
+
+    /**
+     * 设置视频码率（千比特每秒），默认2000
+     */
+    public void setBitrateKbps(int bitrateKbps) {
+        this.mBitrateKbps = bitrateKbps;
+    }
+
+    /**
+     * 切换到某一集时调用，预加载之后的几集，取消其余预加载（包括当前集，当前集由播放器加载）
+     * @param episodeUrls 剧集视频地址列表
+     * @param position 当前播放的位置
+     */
+    public void onEpisodeSelected(List<String> episodeUrls, int position) {
+        Policy policy = currentPolicy();
+        long bytes = (long) policy.seconds * mBitrateKbps * 1000 / 8;
+        List<String> wanted = new ArrayList<>();
+        for (int i = position + 1; i < episodeUrls.size() && wanted.size() < policy.episodes; i++) {
+            wanted.add(episodeUrls.get(i));
+        }
+        synchronized (this) {
+            Iterator<Map.Entry<String, Call>> iterator = mRunning.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Call> entry = iterator.next();
+                if (!wanted.contains(entry.getKey())) {
+                    entry.getValue().cancel();
+                    iterator.remove();
+                }
+            }
+            for (String url : wanted) {
+                if (!mRunning.containsKey(url)) {
+                    start(url, bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * 取消所有预加载
+     */
+    public synchronized void cancelAll() {
+        for (Call call : mRunning.values()) {
+            call.cancel();
+        }
+        mRunning.clear();
+    }
+
+    /**
+     * 开始预加载，调用方需持有锁
+     */
+    private void start(final String url, final long bytes) {
+        final MediaCache cache = MediaCache.getInstance();
+        if (bytes <= 0 || cache.isComplete(url) || cache.cachedLength(url) >= bytes) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Range", "bytes=0-" + (bytes - 1))
+                // 禁止压缩，保证缓存的是原始字节
+                .header("Accept-Encoding", "identity")
+                .cacheControl(NO_STORE)
+                .tag(OkHttpUtil.Priority.class, OkHttpUtil.Priority.PREFETCH)
+                .build();
+        final Call call = mClient.newCall(request);
+        mRunning.put(url, call);
+        OkHttpUtil.getInstance().scheduler().enqueue(call, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                finish(url, call);
+                Log.d(TAG, "预加载失败：" + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                File temp = null;
+                try {
+                    int code = response.code();
+                    ResponseBody body = response.body();
+                    if ((code != 200 && code != 206) || body == null) {
+                        return;
+                    }
+                    temp = cache.newTempFile(url);
+                    boolean complete = copy(body.source(), temp, bytes);
+                    if (code == 206 && !complete) {
+                        // 整个文件不超过请求范围时也是完整内容
+                        complete = totalLength(response) == temp.length();
+                    }
+                    cache.commit(url, temp, complete);
+                    temp = null;
+                } catch (IOException e) {
+                    Log.d(TAG, "预加载中断：" + e.getMessage());
+                } finally {
+                    if (temp != null) {
+                        temp.delete();
+                    }
+                    response.close();
+                    finish(url, call);
+                }
+            }
+        });
+    }
+
+    private synchronized void finish(String url, Call call) {
+        if (mRunning.get(url) == call) {
+            mRunning.remove(url);
+        }
+    }
+
+    /**
+     * 最多读取limit字节写入文件
+     * @return 是否读到了响应末尾
+     */
+    private static boolean copy(BufferedSource source, File file, long limit) throws IOException {
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        try {
+            long total = 0;
+            while (total < limit) {
+                long read = source.read(sink.getBuffer(), Math.min(READ_SIZE, limit - total));
+                if (read == -1) {
+                    return true;
+                }
+                total += read;
+                sink.emitCompleteSegments();
+            }
+            return source.exhausted();
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * 解析Content-Range: bytes 0-99/1000中的总长度，未知时返回-1
+     */
+    private static long totalLength(Response response) {
+        String range = response.header("Content-Range");
+        int slash = range != null ? range.lastIndexOf('/') : -1;
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 按当前网络决定预加载几集、每集多少秒
+     */
+    private Policy currentPolicy() {
+        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return Policy.NONE;
+        }
+        NetworkCapabilities caps = cm.getNetworkCapabilities(cm.getActiveNetwork());
+        if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return Policy.NONE;
+        }
+        if (caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+            return Policy.UNMETERED;
+        }
+        // 计费网络：开启省流模式或带宽较低时只预加载下一集的开头
+        if (cm.getRestrictBackgroundStatus() == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED
+                || caps.getLinkDownstreamBandwidthKbps() < mBitrateKbps * 2) {
+            return Policy.CONSTRAINED;
+        }
+        return Policy.METERED;
+    }
+
+    private static class Policy {
+        static final Policy NONE = new Policy(0, 0);
+        // Wi-Fi等不计费网络：后3集，各5秒
+        static final Policy UNMETERED = new Policy(3, 5);
+        // 移动网络：后2集，各3秒
+        static final Policy METERED = new Policy(2, 3);
+        // 省流模式或弱网：下一集，2秒
+        static final Policy CONSTRAINED = new Policy(1, 2);
+
+        final int episodes;
+        final int seconds;
+
+        Policy(int episodes, int seconds) {
+            this.episodes = episodes;
+            this.seconds = seconds;
+        }
+    }
+}
@@ -0,0 +1,657 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的键值存储，实现SharedPreferences接口，作为SPUtils的存储后端
+ * 文件格式：[魔数][已用长度] + 追加写入的记录[长度][CRC32][类型][key][value]
+ * 每次写入只追加一条记录并更新头部长度，不重写整个文件；进程崩溃后由内核把映射页写回磁盘，
+ * 断电等导致的半条记录在加载时通过CRC校验丢弃。
+ * 同一个key的旧记录超过有效数据一定比例时在后台线程压缩，只保留最新值。
+ * 首次打开时自动从同名SharedPreferences文件迁移数据，迁移后删除旧文件；迁移过程持有跨进程文件锁。
+ * 注意：除迁移外不做跨进程同步，多个进程同时读写同一文件会互相覆盖，只能在一个进程中使用
+ */
+final class MmapKVStore implements SharedPreferences {
+    private static final String TAG = MmapKVStore.class.getSimpleName();
+    private static final String DIR_NAME = "mmkv";
+    private static final int MAGIC = 0x4B56_0001;
+    // 头部：魔数 + 已用长度
+    private static final int HEADER_SIZE = 8;
+    // 记录头：长度 + CRC32
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int PAGE_SIZE = 4096;
+    // 文件超过该大小且无效数据超过一半时压缩
+    private static final int COMPACT_MIN_SIZE = 64 * 1024;
+
+    private static final byte TYPE_REMOVE = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final Map<String, MmapKVStore> sStores = new ConcurrentHashMap<>();
+    private static final ExecutorService sCompactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "MmapKV-compact");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File mFile;
+    // 以下字段均由this保护
+    private final Map<String, Object> mMap = new HashMap<>();
+    // 每个key最新记录的字节数，用于估算有效数据大小
+    private final Map<String, Integer> mRecordSizes = new HashMap<>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    private RandomAccessFile mRaf;
+    private MappedByteBuffer mBuffer;
+    private int mUsed;
+    private long mLiveBytes;
+    // 清空或压缩后递增，后台压缩据此判断快照是否仍然有效
+    private int mGeneration;
+    private boolean mCompactScheduled;
+
+    /**
+     * 打开指定名称的存储，同名只会创建一个实例
+     */
+    static MmapKVStore open(Context context, String name) {
+        MmapKVStore store = sStores.get(name);
+        if (store != null) {
+            return store;
+        }
+        synchronized (sStores) {
+            store = sStores.get(name);
+            if (store == null) {
+                File dir = new File(context.getFilesDir(), DIR_NAME);
+                if (!dir.exists()) {
+                    dir.mkdirs();
+                }
+                File file = new File(dir, name + ".kv");
+                try {
+                    if (!file.exists()) {
+                        migrateLocked(context, name, file, new File(dir, name + ".lock"));
+                    }
+                    store = new MmapKVStore(file);
+                } catch (IOException e) {
+                    throw new IllegalStateException("无法打开存储文件：" + file, e);
+                }
+                sStores.put(name, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * 持有跨进程文件锁迁移，其它进程同时打开同一文件时等待迁移完成，避免共用临时文件或重复迁移
+     */
+    private static void migrateLocked(Context context, String name, File file, File lockFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+        try {
+            FileLock lock = raf.getChannel().lock();
+            try {
+                if (!file.exists()) {
+                    migrate(context, name, file);
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 等待已安排的后台压缩执行完成，供测试使用
+     */
+    static void awaitCompaction() throws InterruptedException, ExecutionException {
+        sCompactor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    /**
+     * 从同名SharedPreferences迁移数据：先完整写入临时文件再重命名，成功后删除旧文件
+     */
+    private static void migrate(Context context, String name, File file) throws IOException {
+        Map<String, ?> old = context.getSharedPreferences(name, Context.MODE_PRIVATE).getAll();
+        if (old.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, ?> entry : old.entrySet()) {
+            out.write(encode(entry.getKey(), entry.getValue()));
+        }
+        writeFile(file, out.toByteArray());
+        context.deleteSharedPreferences(name);
+        Log.i(TAG, "已从SharedPreferences迁移" + old.size() + "项：" + name);
+    }
+
+    /**
+     * 直接打开指定文件，不经过实例缓存和迁移；应用内应使用{@link #open}，这里供测试重新加载文件
+     */
+    MmapKVStore(File file) throws IOException {
+        this.mFile = file;
+        map();
+        load();
+    }
+
+    /**
+     * 映射文件，容量按页对齐
+     */
+    private void map() throws IOException {
+        mRaf = new RandomAccessFile(mFile, "rw");
+        long length = mRaf.length();
+        if (length < PAGE_SIZE) {
+            length = PAGE_SIZE;
+            mRaf.setLength(length);
+        }
+        mBuffer = mRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * 读取全部记录，遇到损坏的记录时截断到最后一条完整记录
+     */
+    private void load() {
+        mUsed = HEADER_SIZE;
+        if (mBuffer.getInt(0) != MAGIC) {
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, HEADER_SIZE);
+            return;
+        }
+        int end = Math.min(mBuffer.getInt(4), mBuffer.capacity());
+        CRC32 crc = new CRC32();
+        while (mUsed + RECORD_HEADER_SIZE <= end) {
+            int length = mBuffer.getInt(mUsed);
+            int checksum = mBuffer.getInt(mUsed + 4);
+            int start = mUsed + RECORD_HEADER_SIZE;
+            if (length <= 0 || start + length > end) {
+                break;
+            }
+            byte[] body = new byte[length];
+            ByteBuffer view = mBuffer.duplicate();
+            view.position(start);
+            view.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            apply(ByteBuffer.wrap(body), RECORD_HEADER_SIZE + length);
+            mUsed = start + length;
+        }
+        if (mUsed != end) {
+            Log.w(TAG, "存储文件尾部损坏，已丢弃" + (end - mUsed) + "字节：" + mFile.getName());
+            mBuffer.putInt(4, mUsed);
+        }
+    }
+
+    /**
+     * 把一条记录应用到内存
+     */
+    private void apply(ByteBuffer body, int recordSize) {
+        byte type = body.get();
+        String key = readString(body);
+        Object value;
+        switch (type) {
+            case TYPE_STRING:
+                value = readString(body);
+                break;
+            case TYPE_INT:
+                value = body.getInt();
+                break;
+            case TYPE_LONG:
+                value = body.getLong();
+                break;
+            case TYPE_FLOAT:
+                value = body.getFloat();
+                break;
+            case TYPE_BOOLEAN:
+                value = body.get() != 0;
+                break;
+            case TYPE_STRING_SET:
+                int size = body.getInt();
+                Set<String> set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(readString(body));
+                }
+                value = Collections.unmodifiableSet(set);
+                break;
+            default:
+                value = null;
+                break;
+        }
+        Integer previous = value != null ? mRecordSizes.put(key, recordSize) : mRecordSizes.remove(key);
+        if (previous != null) {
+            mLiveBytes -= previous;
+        }
+        if (value != null) {
+            mMap.put(key, value);
+            mLiveBytes += recordSize;
+        } else {
+            mMap.remove(key);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 编码一条完整记录（含记录头），value为null表示删除
+     */
+    private static byte[] encode(String key, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (value == null) {
+            out.writeByte(TYPE_REMOVE);
+            writeString(out, key);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, key);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            writeString(out, key);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            writeString(out, key);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            writeString(out, key);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            writeString(out, key);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Set) {
+            out.writeByte(TYPE_STRING_SET);
+            writeString(out, key);
+            Set<?> set = (Set<?>) value;
+            out.writeInt(set.size());
+            for (Object item : set) {
+                writeString(out, (String) item);
+            }
+        } else {
+            throw new IllegalArgumentException("不支持的类型：" + value.getClass());
+        }
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        return record.array();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 写入只包含给定记录的完整文件：先写临时文件并同步到磁盘，再重命名替换
+     */
+    private static void writeFile(File file, byte[] records) throws IOException {
+        File temp = tempFile(file);
+        writeTemp(temp, records);
+        replace(temp, file);
+    }
+
+    private static File tempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * 写入临时文件并同步到磁盘，耗时较长，不能持有锁调用
+     */
+    private static void writeTemp(File temp, byte[] records) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            raf.setLength(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(HEADER_SIZE + records.length);
+            raf.write(records);
+            raf.setLength(Math.max(PAGE_SIZE, pageAlign(HEADER_SIZE + records.length)));
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void replace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("重命名失败：" + file);
+        }
+    }
+
+    private static long pageAlign(long size) {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * 追加记录后再更新头部长度，头部更新前崩溃只会丢失这一批记录
+     */
+    private void append(byte[] records) throws IOException {
+        if (mUsed + records.length > mBuffer.capacity()) {
+            long capacity = mBuffer.capacity();
+            while (mUsed + records.length > capacity) {
+                capacity *= 2;
+            }
+            mRaf.setLength(capacity);
+            mBuffer = mRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(mUsed);
+        view.put(records);
+        mUsed += records.length;
+        mBuffer.putInt(4, mUsed);
+    }
+
+    /**
+     * 无效数据超过一半时安排后台压缩，调用方需持有锁
+     */
+    private void maybeCompact() {
+        if (mUsed > COMPACT_MIN_SIZE && mUsed - HEADER_SIZE > mLiveBytes * 2 && !mCompactScheduled) {
+            mCompactScheduled = true;
+            sCompactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * 后台压缩：按快照写新文件并同步到磁盘，这一步不持有锁，读写不受影响；
+     * 之后持锁把期间新追加的记录拷贝到新文件末尾并替换，只涉及少量数据，不再同步磁盘。
+     * 追加部分与原文件中的记录一样依赖内核回写，断电时由加载时的CRC校验截断。
+     */
+    private void compact() {
+        Map<String, Object> snapshot;
+        int snapshotEnd;
+        int generation;
+        synchronized (this) {
+            mCompactScheduled = false;
+            snapshot = new HashMap<>(mMap);
+            snapshotEnd = mUsed;
+            generation = mGeneration;
+        }
+        File temp = tempFile(mFile);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+                out.write(encode(entry.getKey(), entry.getValue()));
+            }
+            byte[] records = out.toByteArray();
+            writeTemp(temp, records);
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    temp.delete();
+                    return;
+                }
+                byte[] tail = new byte[mUsed - snapshotEnd];
+                ByteBuffer view = mBuffer.duplicate();
+                view.position(snapshotEnd);
+                view.get(tail);
+                int used = HEADER_SIZE + records.length + tail.length;
+                RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+                try {
+                    raf.setLength(Math.max(PAGE_SIZE, pageAlign(used)));
+                    raf.seek(HEADER_SIZE + records.length);
+                    raf.write(tail);
+                    raf.seek(4);
+                    raf.writeInt(used);
+                } finally {
+                    raf.close();
+                }
+                replace(temp, mFile);
+                mRaf.close();
+                map();
+                mUsed = used;
+                mGeneration++;
+            }
+        } catch (IOException e) {
+            temp.delete();
+            Log.e(TAG, "存储文件压缩失败：" + mFile.getName(), e);
+        }
+    }
+
+    // ========== 读取 ==========
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<>(mMap);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        String value = (String) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> value = (Set<String>) mMap.get(key);
+        return value != null ? value : defValues;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Integer value = (Integer) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Long value = (Long) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        Float value = (Float) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) mMap.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mMap.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.put(listener, this);
+    }
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    // ========== 写入 ==========
+
+    /**
+     * 提交一批修改：clear先于其它修改生效，值未变化的key不写入
+     * @return 是否写入成功
+     */
+    private boolean commit(boolean clear, Map<String, Object> changes) {
+        final List<String> changedKeys = new ArrayList<>();
+        final List<OnSharedPreferenceChangeListener> listeners;
+        synchronized (this) {
+            try {
+                if (clear && !mMap.isEmpty()) {
+                    mMap.clear();
+                    mRecordSizes.clear();
+                    mLiveBytes = 0;
+                    mUsed = HEADER_SIZE;
+                    mBuffer.putInt(4, mUsed);
+                    mGeneration++;
+                    // 与系统实现一致（Android 11起），清空时以null key通知
+                    changedKeys.add(null);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                List<byte[]> records = new ArrayList<>();
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    Object current = mMap.get(key);
+                    if (value == null ? current == null : value.equals(current)) {
+                        continue;
+                    }
+                    byte[] record = encode(key, value);
+                    records.add(record);
+                    out.write(record);
+                    changedKeys.add(key);
+                }
+                if (out.size() > 0) {
+                    // 先写入文件再更新内存，写入失败时内存与文件保持一致
+                    append(out.toByteArray());
+                    for (byte[] record : records) {
+                        apply(ByteBuffer.wrap(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE), record.length);
+                    }
+                    maybeCompact();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "写入失败：" + mFile.getName(), e);
+                return false;
+            }
+            if (changedKeys.isEmpty() || mListeners.isEmpty()) {
+                return true;
+            }
+            listeners = new ArrayList<>(mListeners.keySet());
+        }
+        // 与系统实现一致，变更回调在主线程
+        UIUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : changedKeys) {
+                    for (OnSharedPreferenceChangeListener listener : listeners) {
+                        listener.onSharedPreferenceChanged(MmapKVStore.this, key);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    private class EditorImpl implements Editor {
+        // value为null表示删除
+        private final Map<String, Object> mChanges = new HashMap<>();
+        private boolean mClear;
+
+        @Override
+        public synchronized Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putStringSet(String key, Set<String> values) {
+            mChanges.put(key, values != null ? Collections.unmodifiableSet(new HashSet<>(values)) : null);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @Override
+        public synchronized boolean commit() {
+            boolean result = MmapKVStore.this.commit(mClear, new HashMap<>(mChanges));
+            mChanges.clear();
+            mClear = false;
+            return result;
+        }
+
+        /**
+         * 写入内存映射本身就很快，直接同步完成
+         */
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+import javax.net.SocketFactory;
+
+/**
+ * 创建的连接关闭Nagle算法（TCP_NODELAY）
+ * OkHttp按8KB分段写出请求体，开启Nagle时最后一段不足一个报文，要等服务端对上一段的确认才发出，
+ * 而服务端的确认通常被延迟（Linux约40ms），超过8KB的请求每次都会多等这一段时间
+ */
+class NoDelaySocketFactory extends SocketFactory {
+    private final SocketFactory mDelegate = SocketFactory.getDefault();
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return noDelay(mDelegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return noDelay(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return noDelay(mDelegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return noDelay(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return noDelay(mDelegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private static Socket noDelay(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+}
@@ -2,27 +2,43 @@ package com.firm.pro.utils;
 
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.firm.pro.BuildConfig;
-import com.firm.pro.constants.AppConstants;
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Authenticator;
+import okhttp3.Cache;
+import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.EventListener;
 import okhttp3.FormBody;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.Route;
 import okhttp3.logging.HttpLoggingInterceptor;
+import okio.Buffer;
 
 /**
  * OkHttp网络工具类
@@ -36,16 +52,93 @@ public class OkHttpUtil {
     private static final String BASE_URL = BuildConfig.BASE_URL;
     // JSON媒体类型
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    // HTTP磁盘缓存目录名（位于应用cache目录下）
+    private static final String HTTP_CACHE_DIR = "http_cache";
+    // HTTP磁盘缓存上限：10MB
+    private static final long HTTP_CACHE_SIZE = 10L * 1024 * 1024;
+    // 各优先级并发上限
+    private static final int INTERACTIVE_CONCURRENCY = 10;
+    private static final int PREFETCH_CONCURRENCY = 3;
+    private static final int BACKGROUND_CONCURRENCY = 2;
+    // DNS解析结果内存缓存有效期：5分钟
+    private static final long DNS_CACHE_TTL_MILLIS = 5 * 60 * 1000L;
+    // 只读缓存且允许任意过期时间，用于缓存优先/离线兜底
+    private static final CacheControl FORCE_STALE_CACHE = new CacheControl.Builder()
+            .onlyIfCached()
+            .maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 在主线程回调（默认）
+     */
+    public static final Executor MAIN_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            UIUtils.runOnUiThread(command);
+        }
+    };
+    /**
+     * 在主线程按帧批量回调，适用于列表加载等短时间内大量回调的场景，见{@link UIUtils#runOnNextFrame}
+     */
+    public static final Executor FRAME_ALIGNED = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            UIUtils.runOnNextFrame(command);
+        }
+    };
+    /**
+     * 直接在完成请求的网络工作线程回调，回调中不能执行耗时操作，也不能操作界面
+     */
+    public static final Executor WORKER_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
 
     private OkHttpClient mOkHttpClient;
+    // 优先级调度
+    private RequestScheduler mScheduler;
+    // GET请求合并
+    private HttpSingleFlight mSingleFlight;
+    // token内存缓存及刷新
+    private TokenManager mTokenManager;
+    // 重试及熔断
+    private RetryInterceptor mRetryInterceptor;
+    // 请求体压缩
+    private GzipRequestInterceptor mGzipInterceptor;
+    // 请求耗时统计
+    private HttpMetrics mMetrics;
+    // 带缓存的DNS
+    private CachingDns mDns;
+    // 离线发件箱
+    private HttpOutbox mOutbox;
     private Context mContext;
     // Gson实例，用于JSON转换
     private Gson mGson;
+    // 批量发送，未启用时为null
+    private volatile HttpBatcher mBatcher;
+    // 通过本实例发起的请求的优先级
+    private Priority mPriority = Priority.INTERACTIVE;
+    // 通过本实例发起的POST JSON请求是否允许批量发送
+    private boolean mBatchable;
+    // 通过本实例发起的POST请求是否进入离线发件箱，及其去重key
+    private boolean mDeferrable;
+    private String mDedupKey;
+    // 通过本实例发起的请求在哪个线程回调
+    private Executor mCallbackExecutor = MAIN_THREAD;
 
     // 私有构造方法
     private OkHttpUtil(Context context) {
         this.mContext = context.getApplicationContext();
         this.mGson = new Gson();
+        this.mTokenManager = new TokenManager();
+        // 优先级调度器控制各优先级并发，重试退避也经由调度器让出名额
+        mScheduler = new RequestScheduler(INTERACTIVE_CONCURRENCY, PREFETCH_CONCURRENCY, BACKGROUND_CONCURRENCY);
+        this.mRetryInterceptor = new RetryInterceptor(RetryPolicy.DEFAULT, mScheduler);
+        this.mGzipInterceptor = new GzipRequestInterceptor();
+        this.mMetrics = new HttpMetrics();
+        this.mDns = new CachingDns(Dns.SYSTEM, DNS_CACHE_TTL_MILLIS);
 
         // 初始化日志拦截器
         HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor(new HttpLoggingInterceptor.Logger() {
@@ -58,15 +151,92 @@ public class OkHttpUtil {
         // 设置日志级别，BASIC包含请求方法、URL、响应码和响应时间
         loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
 
+        // 初始化磁盘缓存，OkHttp会自动处理ETag/Last-Modified条件请求（304复用缓存）
+        Cache cache = new Cache(new File(mContext.getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_SIZE);
+
+        // Dispatcher上限放宽到调度器可同时执行的请求数，避免二次排队
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), mScheduler.maxInFlight()));
+        dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(), mScheduler.maxInFlight()));
+        ForegroundTracker.addListener(new ForegroundTracker.Listener() {
+            @Override
+            public void onForegroundChanged(boolean foreground) {
+                // 进入后台前把缓冲的批量请求发出去，需在暂停后台优先级之前提交
+                HttpBatcher batcher = mBatcher;
+                if (!foreground && batcher != null) {
+                    batcher.flush();
+                }
+                mScheduler.setAppInBackground(!foreground);
+            }
+        });
+
         // 初始化OkHttpClient
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .cache(cache)
+                .dns(mDns)
+                .socketFactory(new NoDelaySocketFactory()) // 关闭Nagle，大请求体不再等待延迟确认
                 .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
                 .readTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
                 .writeTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
+                .addInterceptor(mRetryInterceptor) // 重试及熔断，放在最外层
                 .addInterceptor(loggingInterceptor)
-                .addInterceptor(new TokenInterceptor()); // 添加token拦截器
+                .addInterceptor(new TokenInterceptor()) // 添加token拦截器
+                .addInterceptor(mGzipInterceptor) // 请求体压缩，默认关闭
+                .authenticator(new TokenAuthenticator()) // 401时刷新token后重试
+                .eventListenerFactory(mMetrics); // 各阶段耗时统计
 
         mOkHttpClient = builder.build();
+        mSingleFlight = new HttpSingleFlight(mOkHttpClient, mScheduler);
+        mOutbox = new HttpOutbox(mContext, mOkHttpClient, mScheduler, mGson);
+        registerNetworkCallback();
+    }
+
+    // 请求参数视图（优先级、批量等），与原实例共享所有状态
+    private OkHttpUtil(OkHttpUtil base) {
+        this.mOkHttpClient = base.mOkHttpClient;
+        this.mScheduler = base.mScheduler;
+        this.mSingleFlight = base.mSingleFlight;
+        this.mTokenManager = base.mTokenManager;
+        this.mRetryInterceptor = base.mRetryInterceptor;
+        this.mGzipInterceptor = base.mGzipInterceptor;
+        this.mMetrics = base.mMetrics;
+        this.mDns = base.mDns;
+        this.mOutbox = base.mOutbox;
+        this.mContext = base.mContext;
+        this.mGson = base.mGson;
+        this.mPriority = base.mPriority;
+        this.mBatchable = base.mBatchable;
+        this.mDeferrable = base.mDeferrable;
+        this.mDedupKey = base.mDedupKey;
+        this.mCallbackExecutor = base.mCallbackExecutor;
+    }
+
+    /**
+     * 默认网络切换（如WiFi与移动网络之间）后清空DNS缓存，新网络下可能解析到不同的地址
+     */
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        try {
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                // 注册时会先回调一次当前网络，不需要清空
+                private Network mCurrent;
+
+                @Override
+                public void onAvailable(Network network) {
+                    if (mCurrent != null && !mCurrent.equals(network)) {
+                        mDns.clear();
+                    }
+                    mCurrent = network;
+                }
+            });
+        } catch (RuntimeException e) {
+            // 部分机型注册过多回调或缺少权限时会抛异常，退化为只靠缓存过期
+            Log.w(TAG, "注册网络状态监听失败", e);
+        }
     }
 
     // 静态内部类实现单例模式
@@ -102,6 +272,130 @@ public class OkHttpUtil {
         return SingletonHolder.INSTANCE;
     }
 
+    /**
+     * 按指定优先级发起请求，例如：
+     * OkHttpUtil.getInstance().priority(Priority.PREFETCH).get(url, params, callback);
+     * 默认优先级为{@link Priority#INTERACTIVE}
+     */
+    public OkHttpUtil priority(Priority priority) {
+        if (priority == mPriority) {
+            return this;
+        }
+        OkHttpUtil view = new OkHttpUtil(this);
+        view.mPriority = priority;
+        return view;
+    }
+
+    /**
+     * 允许批量发送的请求，适用于曝光上报、答题、任务进度等高频POST JSON请求，例如：
+     * OkHttpUtil.getInstance().batchable().postObject(url, event, callback);
+     * 需先调用{@link #enableBatching}，未启用时按普通请求发送
+     */
+    public OkHttpUtil batchable() {
+        if (mBatchable) {
+            return this;
+        }
+        OkHttpUtil view = new OkHttpUtil(this);
+        view.mBatchable = true;
+        return view;
+    }
+
+    /**
+     * 指定回调线程，例如后台预取、同步任务不需要切换到主线程：
+     * OkHttpUtil.getInstance().callbackOn(OkHttpUtil.WORKER_THREAD).getAsync(url, params, Feed.class);
+     * @param executor {@link #MAIN_THREAD}（默认）、{@link #FRAME_ALIGNED}、{@link #WORKER_THREAD}或自定义线程池
+     */
+    public OkHttpUtil callbackOn(Executor executor) {
+        if (executor == null) {
+            executor = MAIN_THREAD;
+        }
+        if (executor == mCallbackExecutor) {
+            return this;
+        }
+        OkHttpUtil view = new OkHttpUtil(this);
+        view.mCallbackExecutor = executor;
+        return view;
+    }
+
+    /**
+     * 可延迟的POST请求，适用于奖励领取、答题提交等不能丢失的写请求，例如：
+     * OkHttpUtil.getInstance().deferrable("answer_" + questionId).postJson(url, json, callback);
+     * 请求先持久化再发送，断网或服务端暂时不可用时不回调失败，网络恢复后按提交顺序自动重发，进程重启后继续发送。
+     * 回调只在本进程内最终成功或被服务端拒绝（4xx）时触发一次，取消句柄只停止回调，请求仍会发送
+     * @param dedupKey 去重key，作为Idempotency-Key请求头发给服务端，队列中已有相同key时不重复加入；传null自动生成
+     */
+    public OkHttpUtil deferrable(String dedupKey) {
+        OkHttpUtil view = new OkHttpUtil(this);
+        view.mDeferrable = true;
+        view.mDedupKey = dedupKey;
+        return view;
+    }
+
+    /**
+     * 启用批量发送
+     * @param batchUrl 批量接口地址（可以是相对路径）
+     * @param maxBatchSize 单批最大请求数，达到后立即发送
+     * @param maxDelayMillis 最长缓冲时间，超时后发送
+     */
+    public void enableBatching(String batchUrl, int maxBatchSize, long maxDelayMillis) {
+        // 批量配置是全局的，无论在哪个视图上调用都写入单例
+        OkHttpUtil base = getInstance();
+        HttpBatcher previous;
+        synchronized (base) {
+            previous = base.mBatcher;
+            base.mBatcher = new HttpBatcher(mOkHttpClient, mScheduler, mGson, getUrl(batchUrl), maxBatchSize, maxDelayMillis);
+        }
+        if (previous != null) {
+            // 发出旧配置下缓冲的请求并停止其定时线程
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * 立即发送缓冲中的批量请求
+     */
+    public void flushBatch() {
+        HttpBatcher batcher = getInstance().mBatcher;
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    /**
+     * 当前请求是否走批量发送
+     */
+    private HttpBatcher batcher() {
+        return mBatchable ? getInstance().mBatcher : null;
+    }
+
+    OkHttpClient client() {
+        return mOkHttpClient;
+    }
+
+    RequestScheduler scheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * 与主客户端共享连接池、DNS和Dispatcher，但不经过token、重试、日志等拦截器，
+     * 不做token刷新，也不计入请求耗时统计，用于图片、视频等非业务请求
+     */
+    OkHttpClient.Builder bareClientBuilder() {
+        OkHttpClient.Builder builder = mOkHttpClient.newBuilder()
+                .authenticator(Authenticator.NONE)
+                .eventListener(EventListener.NONE);
+        builder.interceptors().clear();
+        builder.networkInterceptors().clear();
+        return builder;
+    }
+
+    /**
+     * 创建带优先级标签的请求
+     */
+    private Request.Builder newRequestBuilder() {
+        return new Request.Builder().tag(Priority.class, mPriority);
+    }
+
     /**
      * Token拦截器，自动为请求添加token
      */
@@ -110,13 +404,12 @@ public class OkHttpUtil {
         public Response intercept(Chain chain) throws IOException {
             Request originalRequest = chain.request();
 
-            // 从本地获取token，这里使用SharedPreferences示例
-
-            String token = SPUtils.getInstance().getString(AppConstants.SPFileName.USER_INFO, "token", "");
+            // 从内存缓存获取token，user_info文件变化时自动同步，不会阻塞在SP读取上
+            String token = mTokenManager.getToken();
             // 如果token不为空，则为请求添加Authorization头
             if (!TextUtils.isEmpty(token)) {
                 Request authorisedRequest = originalRequest.newBuilder()
-                        .header("token", token)
+                        .header(TokenManager.KEY_TOKEN, token)
                         .build();
                 return chain.proceed(authorisedRequest);
             }
@@ -125,6 +418,98 @@ public class OkHttpUtil {
         }
     }
 
+    /**
+     * 401时刷新token并重试一次，并发的401共享同一次刷新
+     */
+    private class TokenAuthenticator implements Authenticator {
+        @Override
+        public Request authenticate(Route route, Response response) {
+            // 未设置刷新器，或重试后仍然401，不再处理
+            if (!mTokenManager.canRefresh() || response.priorResponse() != null) {
+                return null;
+            }
+            String expiredToken = response.request().header(TokenManager.KEY_TOKEN);
+            String newToken = mTokenManager.refresh(expiredToken);
+            if (TextUtils.isEmpty(newToken) || newToken.equals(expiredToken)) {
+                return null;
+            }
+            return response.request().newBuilder()
+                    .header(TokenManager.KEY_TOKEN, newToken)
+                    .build();
+        }
+    }
+
+    /**
+     * 设置重试及熔断策略，默认{@link RetryPolicy#DEFAULT}，传入{@link RetryPolicy#NONE}可关闭
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        mRetryInterceptor.setPolicy(policy != null ? policy : RetryPolicy.NONE);
+    }
+
+    /**
+     * 设置请求体gzip压缩阈值（需要服务端支持Content-Encoding: gzip）
+     * 请求体不小于该值（postObject按序列化后的长度）或长度未知时压缩，传入负数关闭（默认）
+     * @param thresholdBytes 压缩阈值，单位字节
+     */
+    public void setRequestCompression(long thresholdBytes) {
+        mGzipInterceptor.setThreshold(thresholdBytes);
+    }
+
+    /**
+     * 预热连接：在后台提前完成DNS解析和TCP/TLS握手，建立的连接放入连接池供后续请求复用，
+     * 首屏请求可省去这几次往返。建议在Application中init之后调用
+     * @param urls 需要预热的地址（可以是相对路径），只取其域名，不传时预热BASE_URL
+     */
+    public void prewarm(String... urls) {
+        if (urls == null || urls.length == 0) {
+            urls = new String[]{BASE_URL};
+        }
+        // 共享连接池、DNS和Dispatcher，但不经过token、重试等拦截器，不读写缓存，也不计入耗时统计
+        OkHttpClient warmClient = bareClientBuilder()
+                .cache(null)
+                .build();
+
+        Set<HttpUrl> origins = new LinkedHashSet<>();
+        for (String url : urls) {
+            HttpUrl httpUrl = HttpUrl.parse(getUrl(url));
+            if (httpUrl != null) {
+                origins.add(httpUrl.resolve("/"));
+            }
+        }
+        for (HttpUrl origin : origins) {
+            Request request = new Request.Builder()
+                    .url(origin)
+                    .head()
+                    .build();
+            warmClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.w(TAG, "连接预热失败：" + call.request().url().host() + "，" + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    // 只需要建立连接，响应内容忽略
+                    response.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * 获取请求耗时统计，可通过snapshot()获取各接口p50/p95/p99，或dump()导出文本
+     */
+    public HttpMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 设置token刷新器，设置后请求返回401时会自动刷新token并重试
+     */
+    public void setTokenRefresher(TokenRefresher refresher) {
+        mTokenManager.setRefresher(refresher);
+    }
+
     /**
      * 拼接完整URL
      * @param url 可以是完整URL或相对路径
@@ -140,61 +525,307 @@ public class OkHttpUtil {
     }
 
     /**
-     * GET请求
-     * @param url 请求地址（可以是相对路径）
+     * 拼接GET请求URL
+     * 参数按key排序后再编码拼接，保证相同参数不同Map顺序时得到同一个缓存key
+     * @param url 可以是完整URL或相对路径
      * @param params 请求参数
-     * @param callback 回调接口
+     * @return 规范化后的请求URL
      */
-    public void get(String url, Map<String, String> params, final HttpCallback callback) {
-        // 拼接URL和参数
-        StringBuilder urlBuilder = new StringBuilder(getUrl(url));
+    private HttpUrl buildGetUrl(String url, Map<String, String> params) {
+        HttpUrl.Builder urlBuilder = HttpUrl.get(getUrl(url)).newBuilder();
         if (params != null && !params.isEmpty()) {
-            urlBuilder.append("?");
-            for (Map.Entry<String, String> entry : params.entrySet()) {
-                urlBuilder.append(entry.getKey()).append("=").append(entry.getValue()).append("&");
+            for (Map.Entry<String, String> entry : new TreeMap<>(params).entrySet()) {
+                urlBuilder.addQueryParameter(entry.getKey(), entry.getValue());
             }
-            // 移除最后一个&
-            urlBuilder.deleteCharAt(urlBuilder.length() - 1);
         }
+        return urlBuilder.build();
+    }
 
+    /**
+     * GET请求（使用默认缓存策略）
+     * @param url 请求地址（可以是相对路径）
+     * @param params 请求参数
+     * @param callback 回调接口
+     * @return 请求句柄，可用于取消本次回调
+     */
+    public RequestHandle get(String url, Map<String, String> params, final HttpCallback callback) {
+        return get(url, params, CachePolicy.DEFAULT, callback);
+    }
+
+    /**
+     * GET请求
+     * 相同URL、参数和缓存策略的请求在途时会合并为一次网络调用，每个调用方各自收到回调
+     * @param url 请求地址（可以是相对路径）
+     * @param params 请求参数
+     * @param cachePolicy 缓存策略
+     * @param callback 回调接口
+     * @return 请求句柄，取消只影响当前调用方，不影响合并的其他调用方
+     */
+    public RequestHandle get(String url, Map<String, String> params, CachePolicy cachePolicy, final HttpCallback callback) {
+        return get(url, params, cachePolicy, ResponseParser.STRING, adapt(callback));
+    }
+
+    /**
+     * GET请求，响应在工作线程直接解析为对象后回调主线程
+     * @param clazz 响应数据类型
+     */
+    public <T> RequestHandle get(String url, Map<String, String> params, Class<T> clazz, ObjectCallback<T> callback) {
+        return get(url, params, CachePolicy.DEFAULT, TypeToken.get(clazz), callback);
+    }
+
+    /**
+     * GET请求，响应在工作线程直接解析为对象后回调主线程
+     * @param typeToken 响应数据类型，用于泛型类型（如List&lt;T&gt;）
+     */
+    public <T> RequestHandle get(String url, Map<String, String> params, TypeToken<T> typeToken, ObjectCallback<T> callback) {
+        return get(url, params, CachePolicy.DEFAULT, typeToken, callback);
+    }
+
+    /**
+     * GET请求，响应在工作线程直接解析为对象后回调主线程
+     * 合并的调用方共享同一个解析结果对象，请勿修改
+     * @param url 请求地址（可以是相对路径）
+     * @param params 请求参数
+     * @param cachePolicy 缓存策略
+     * @param typeToken 响应数据类型
+     * @param callback 回调接口
+     * @return 请求句柄，取消只影响当前调用方，不影响合并的其他调用方
+     */
+    public <T> RequestHandle get(String url, Map<String, String> params, CachePolicy cachePolicy,
+                                 TypeToken<T> typeToken, ObjectCallback<T> callback) {
+        return get(url, params, cachePolicy, ResponseParser.json(mGson, typeToken), callback);
+    }
+
+    private <T> RequestHandle get(String url, Map<String, String> params, CachePolicy cachePolicy,
+                                  ResponseParser<T> parser, ObjectCallback<T> callback) {
         // 创建请求
-        Request request = new Request.Builder()
-                .url(urlBuilder.toString())
+        Request request = newRequestBuilder()
+                .url(buildGetUrl(url, params))
                 .get()
                 .build();
-        // 发起异步请求
-        mOkHttpClient.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, final IOException e) {
-                // 在主线程回调
-                UIUtils.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (callback != null) {
-                            callback.onFailure(e.getMessage());
+        GetTask<T> task = new GetTask<>(request, parser, callback);
+        task.start(cachePolicy);
+        return task;
+    }
+
+    /**
+     * 一次GET调用，按缓存策略串联缓存读取和网络请求，每一步都经过请求合并
+     */
+    private class GetTask<T> implements RequestHandle {
+        private final Request request;
+        private final ResponseParser<T> parser;
+        private final ObjectCallback<T> callback;
+        private volatile boolean canceled;
+        private volatile boolean finished;
+        // 当前正在进行的一步
+        private volatile RequestHandle current;
+
+        GetTask(Request request, ResponseParser<T> parser, ObjectCallback<T> callback) {
+            this.request = request;
+            this.parser = parser;
+            this.callback = callback;
+        }
+
+        void start(CachePolicy cachePolicy) {
+            switch (cachePolicy) {
+                case NETWORK_ONLY:
+                    fetch(request.newBuilder().cacheControl(CacheControl.FORCE_NETWORK).build(), deliverListener());
+                    break;
+                case CACHE_FIRST:
+                    // 有缓存（无论是否过期）直接使用，没有缓存才走网络
+                    fetch(request.newBuilder()
+                            .cacheControl(new CacheControl.Builder().maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS).build())
+                            .build(), deliverListener());
+                    break;
+                case STALE_WHILE_REVALIDATE:
+                    staleWhileRevalidate();
+                    break;
+                case STALE_IF_ERROR:
+                    staleIfError();
+                    break;
+                case DEFAULT:
+                default:
+                    fetch(request, deliverListener());
+                    break;
+            }
+        }
+
+        /**
+         * 先返回缓存（允许过期），同时在后台发起网络请求刷新缓存，供下次读取
+         * 没有缓存时等同于普通网络请求
+         */
+        private void staleWhileRevalidate() {
+            fetch(request.newBuilder().cacheControl(FORCE_STALE_CACHE).build(), new HttpSingleFlight.Listener<T>() {
+                @Override
+                public void onResponse(int code, T result) {
+                    // 缓存中没有可用数据时OkHttp返回504
+                    if (!isSuccessful(code)) {
+                        fetch(request, deliverListener());
+                        return;
+                    }
+                    deliver(code, result);
+                    revalidate();
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    fetch(request, deliverListener());
+                }
+            });
+        }
+
+        /**
+         * 后台刷新缓存，合并后读取完整响应体以便OkHttp写入缓存，结果不回调
+         */
+        private void revalidate() {
+            Request revalidateRequest = request.newBuilder()
+                    .cacheControl(CacheControl.FORCE_NETWORK)
+                    .tag(Priority.class, Priority.PREFETCH)
+                    .build();
+            mSingleFlight.enqueue(revalidateRequest, parser,
+                    new HttpSingleFlight.Listener<T>() {
+                        @Override
+                        public void onResponse(int code, T result) {
+                        }
+
+                        @Override
+                        public void onFailure(IOException e) {
+                            Log.d(TAG, "revalidate failed: " + e.getMessage());
                         }
+                    });
+        }
+
+        /**
+         * 优先走网络，网络失败或服务端5xx时回退到缓存（允许过期），用于离线场景
+         */
+        private void staleIfError() {
+            fetch(request, new HttpSingleFlight.Listener<T>() {
+                @Override
+                public void onResponse(int code, T result) {
+                    if (code >= 500) {
+                        fallbackToCache(errorMessage(code));
+                        return;
+                    }
+                    deliver(code, result);
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    fallbackToCache(e.getMessage());
+                }
+            });
+        }
+
+        /**
+         * 读取缓存兜底，缓存不存在时回调原始错误信息
+         */
+        private void fallbackToCache(final String errorMsg) {
+            fetch(request.newBuilder().cacheControl(FORCE_STALE_CACHE).build(), new HttpSingleFlight.Listener<T>() {
+                @Override
+                public void onResponse(int code, T result) {
+                    if (code == 504) {
+                        deliverFailure(errorMsg);
+                        return;
                     }
-                });
+                    deliver(code, result);
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    deliverFailure(errorMsg);
+                }
+            });
+        }
+
+        private void fetch(Request request, HttpSingleFlight.Listener<T> listener) {
+            if (canceled) {
+                return;
+            }
+            RequestHandle handle = mSingleFlight.enqueue(request, parser, listener);
+            current = handle;
+            // 发起过程中被取消，补偿取消
+            if (canceled) {
+                handle.cancel();
             }
+        }
 
-            @Override
-            public void onResponse(Call call, final Response response) throws IOException {
-                final String responseData = response.body().string();
-                // 在主线程回调
-                UIUtils.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (callback != null) {
-                            if (response.isSuccessful()) {
-                                callback.onSuccess(responseData);
-                            } else {
-                                callback.onFailure("请求失败，错误码：" + response.code());
-                            }
-                        }
+        private HttpSingleFlight.Listener<T> deliverListener() {
+            return new HttpSingleFlight.Listener<T>() {
+                @Override
+                public void onResponse(int code, T result) {
+                    deliver(code, result);
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    deliverFailure(e.getMessage());
+                }
+            };
+        }
+
+        private void deliver(final int code, final T result) {
+            if (!isSuccessful(code)) {
+                deliverFailure(errorMessage(code));
+                return;
+            }
+            // 切换到回调线程，回调前再次检查是否已取消，保证取消后不会回调到已销毁的界面
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
                     }
-                });
+                    // 回调送达时才标记结束，提前标记会被RequestScope清理，之后页面销毁时取消不到
+                    finished = true;
+                    if (callback != null) {
+                        callback.onSuccess(result);
+                    }
+                }
+            });
+        }
+
+        private void deliverFailure(final String errorMsg) {
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    finished = true;
+                    if (callback != null) {
+                        callback.onFailure(errorMsg);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            finished = true;
+            RequestHandle handle = current;
+            if (handle != null) {
+                handle.cancel();
             }
-        });
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    private static boolean isSuccessful(int code) {
+        return code >= 200 && code < 300;
+    }
+
+    private static String errorMessage(int code) {
+        return "请求失败，错误码：" + code;
     }
 
     /**
@@ -202,8 +833,9 @@ public class OkHttpUtil {
      * @param url 请求地址（可以是相对路径）
      * @param params 请求参数
      * @param callback 回调接口
+     * @return 请求句柄，可用于取消请求
      */
-    public void postForm(String url, Map<String, String> params, final HttpCallback callback) {
+    public RequestHandle postForm(String url, Map<String, String> params, final HttpCallback callback) {
         // 构建表单请求体
         FormBody.Builder formBuilder = new FormBody.Builder();
         if (params != null && !params.isEmpty()) {
@@ -211,102 +843,441 @@ public class OkHttpUtil {
                 formBuilder.add(entry.getKey(), entry.getValue());
             }
         }
-        RequestBody requestBody = formBuilder.build();
+        FormBody requestBody = formBuilder.build();
+        if (mDeferrable) {
+            return defer(url, requestBody.contentType(), formToString(requestBody), ResponseParser.STRING, adapt(callback));
+        }
 
         // 创建请求
-        Request request = new Request.Builder()
+        Request request = newRequestBuilder()
                 .url(getUrl(url))
                 .post(requestBody)
                 .build();
 
         // 发起异步请求
-        mOkHttpClient.newCall(request).enqueue(new Callback() {
+        return enqueue(request, ResponseParser.STRING, adapt(callback));
+    }
+
+    /**
+     * POST JSON请求
+     * @param url 请求地址（可以是相对路径）
+     * @param json 请求的JSON字符串
+     * @param callback 回调接口
+     * @return 请求句柄，可用于取消请求
+     */
+    public RequestHandle postJson(String url, String json, final HttpCallback callback) {
+        if (mDeferrable) {
+            return defer(url, JSON, json, ResponseParser.STRING, adapt(callback));
+        }
+        HttpBatcher batcher = batcher();
+        if (batcher != null) {
+            return batcher.add(url, json, null, adapt(callback), mCallbackExecutor);
+        }
+        return enqueue(buildJsonRequest(url, json), ResponseParser.STRING, adapt(callback));
+    }
+
+    /**
+     * POST JSON请求，响应在工作线程直接解析为对象后回调主线程
+     * @param clazz 响应数据类型
+     */
+    public <T> RequestHandle postJson(String url, String json, Class<T> clazz, ObjectCallback<T> callback) {
+        return postJson(url, json, TypeToken.get(clazz), callback);
+    }
+
+    /**
+     * POST JSON请求，响应在工作线程直接解析为对象后回调主线程
+     * @param typeToken 响应数据类型
+     */
+    public <T> RequestHandle postJson(String url, String json, TypeToken<T> typeToken, ObjectCallback<T> callback) {
+        if (mDeferrable) {
+            return defer(url, JSON, json, ResponseParser.json(mGson, typeToken), callback);
+        }
+        HttpBatcher batcher = batcher();
+        if (batcher != null) {
+            return batcher.add(url, json, typeToken, callback, mCallbackExecutor);
+        }
+        return enqueue(buildJsonRequest(url, json), ResponseParser.json(mGson, typeToken), callback);
+    }
+
+    /**
+     * 将对象序列化为JSON并发送POST请求
+     * 在OkHttp工作线程序列化一次（不生成中间字符串）并缓存，请求带准确的Content-Length，重试时复用；
+     * 序列化在提交之后才发生，提交后不要再修改对象，否则发出的内容可能包含修改
+     * @param url 请求地址
+     * @param obj 要转换为JSON的对象
+     * @param callback 回调接口
+     * @return 请求句柄，可用于取消请求
+     */
+    public RequestHandle postObject(String url, Object obj, HttpCallback callback) {
+        if (mDeferrable) {
+            return defer(url, JSON, mGson.toJson(obj), ResponseParser.STRING, adapt(callback));
+        }
+        HttpBatcher batcher = batcher();
+        if (batcher != null) {
+            return batcher.add(url, mGson.toJson(obj), null, adapt(callback), mCallbackExecutor);
+        }
+        return enqueue(buildObjectRequest(url, obj), ResponseParser.STRING, adapt(callback));
+    }
+
+    /**
+     * 将对象转换为JSON发送POST请求，响应在工作线程直接解析为对象后回调主线程
+     * @param clazz 响应数据类型
+     */
+    public <T> RequestHandle postObject(String url, Object obj, Class<T> clazz, ObjectCallback<T> callback) {
+        return postObject(url, obj, TypeToken.get(clazz), callback);
+    }
+
+    /**
+     * 将对象转换为JSON发送POST请求，响应在工作线程直接解析为对象后回调主线程
+     * @param typeToken 响应数据类型
+     */
+    public <T> RequestHandle postObject(String url, Object obj, TypeToken<T> typeToken, ObjectCallback<T> callback) {
+        if (mDeferrable) {
+            return defer(url, JSON, mGson.toJson(obj), ResponseParser.json(mGson, typeToken), callback);
+        }
+        HttpBatcher batcher = batcher();
+        if (batcher != null) {
+            return batcher.add(url, mGson.toJson(obj), typeToken, callback, mCallbackExecutor);
+        }
+        return enqueue(buildObjectRequest(url, obj), ResponseParser.json(mGson, typeToken), callback);
+    }
+
+    // ========== 文件下载 ==========
+
+    /**
+     * 下载文件，响应体直接写入文件，中断后再次调用会自动续传
+     * @param url 文件地址（可以是相对路径）
+     * @param target 保存路径，下载中的数据保存在同目录的.part文件中
+     * @param callback 回调接口，进度回调最多每200毫秒一次
+     * @return 请求句柄，取消后保留已下载部分
+     */
+    public RequestHandle download(String url, File target, DownloadCallback callback) {
+        return download(url, target, 1, callback);
+    }
+
+    /**
+     * 分块并行下载大文件，服务端不支持Range或文件较小时退化为单连接下载
+     * @param parallelism 最大并行分块数
+     */
+    public RequestHandle download(String url, File target, int parallelism, DownloadCallback callback) {
+        HttpDownloader downloader = new HttpDownloader(mOkHttpClient, getUrl(url), target, parallelism,
+                callback, mCallbackExecutor);
+        downloader.start();
+        return downloader;
+    }
+
+    // ========== Future接口 ==========
+
+    /**
+     * GET请求，返回字符串结果的Future
+     */
+    public HttpFuture<String> getAsync(String url, Map<String, String> params) {
+        HttpFuture<String> future = new HttpFuture<>();
+        return future.bind(get(url, params, CachePolicy.DEFAULT, ResponseParser.STRING, future.asCallback()));
+    }
+
+    /**
+     * GET请求，响应在工作线程解析为对象
+     */
+    public <T> HttpFuture<T> getAsync(String url, Map<String, String> params, Class<T> clazz) {
+        return getAsync(url, params, CachePolicy.DEFAULT, TypeToken.get(clazz));
+    }
+
+    /**
+     * GET请求，按指定缓存策略，响应在工作线程解析为对象
+     */
+    public <T> HttpFuture<T> getAsync(String url, Map<String, String> params, CachePolicy cachePolicy,
+                                      TypeToken<T> typeToken) {
+        HttpFuture<T> future = new HttpFuture<>();
+        return future.bind(get(url, params, cachePolicy, typeToken, future.asCallback()));
+    }
+
+    /**
+     * POST表单请求，返回字符串结果的Future
+     */
+    public HttpFuture<String> postFormAsync(String url, Map<String, String> params) {
+        final HttpFuture<String> future = new HttpFuture<>();
+        return future.bind(postForm(url, params, new HttpCallback() {
             @Override
-            public void onFailure(Call call, final IOException e) {
-                UIUtils.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (callback != null) {
-                            callback.onFailure(e.getMessage());
-                        }
-                    }
-                });
+            public void onSuccess(String response) {
+                future.complete(response);
             }
 
             @Override
-            public void onResponse(Call call, final Response response) throws IOException {
-                final String responseData = response.body().string();
-                UIUtils.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (callback != null) {
-                            if (response.isSuccessful()) {
-                                callback.onSuccess(responseData);
-                            } else {
-                                callback.onFailure("请求失败，错误码：" + response.code());
-                            }
-                        }
-                    }
-                });
+            public void onFailure(String errorMsg) {
+                future.completeExceptionally(new HttpException(errorMsg));
             }
-        });
+        }));
     }
 
     /**
-     * POST JSON请求
-     * @param url 请求地址（可以是相对路径）
-     * @param json 请求的JSON字符串
-     * @param callback 回调接口
+     * POST JSON请求，响应在工作线程解析为对象
      */
-    public void postJson(String url, String json, final HttpCallback callback) {
-        RequestBody requestBody = RequestBody.create(JSON, json);
+    public <T> HttpFuture<T> postJsonAsync(String url, String json, Class<T> clazz) {
+        return postJsonAsync(url, json, TypeToken.get(clazz));
+    }
+
+    public <T> HttpFuture<T> postJsonAsync(String url, String json, TypeToken<T> typeToken) {
+        HttpFuture<T> future = new HttpFuture<>();
+        return future.bind(postJson(url, json, typeToken, future.asCallback()));
+    }
+
+    /**
+     * 将对象转换为JSON发送POST请求，响应在工作线程解析为对象
+     */
+    public <T> HttpFuture<T> postObjectAsync(String url, Object obj, Class<T> clazz) {
+        return postObjectAsync(url, obj, TypeToken.get(clazz));
+    }
+
+    public <T> HttpFuture<T> postObjectAsync(String url, Object obj, TypeToken<T> typeToken) {
+        HttpFuture<T> future = new HttpFuture<>();
+        return future.bind(postObject(url, obj, typeToken, future.asCallback()));
+    }
+
+    /**
+     * 加入离线发件箱
+     */
+    private <T> RequestHandle defer(String url, MediaType contentType, String body,
+                                    ResponseParser<T> parser, ObjectCallback<T> callback) {
+        return mOutbox.add(getUrl(url), contentType.toString(), body, mDedupKey, parser, callback, mCallbackExecutor);
+    }
+
+    private static String formToString(FormBody body) {
+        Buffer buffer = new Buffer();
+        try {
+            body.writeTo(buffer);
+        } catch (IOException e) {
+            // 写入内存缓冲区不会抛出IO异常
+            throw new IllegalStateException(e);
+        }
+        return buffer.readUtf8();
+    }
 
-        Request request = new Request.Builder()
+    private Request buildJsonRequest(String url, String json) {
+        RequestBody requestBody = RequestBody.create(JSON, json);
+        return newRequestBuilder()
                 .url(getUrl(url))
                 .post(requestBody)
                 .build();
+    }
+
+    private Request buildObjectRequest(String url, Object obj) {
+        return newRequestBuilder()
+                .url(getUrl(url))
+                .post(new JsonObjectBody(mGson, obj))
+                .build();
+    }
+
+    /**
+     * 发起异步请求，在工作线程解析响应后切换到主线程回调
+     */
+    private <T> RequestHandle enqueue(Request request, ResponseParser<T> parser, ObjectCallback<T> callback) {
+        ParsedCallback<T> parsedCallback = new ParsedCallback<>(mOkHttpClient.newCall(request), parser, callback,
+                mCallbackExecutor);
+        mScheduler.enqueue(parsedCallback.call, parsedCallback);
+        return parsedCallback;
+    }
 
-        mOkHttpClient.newCall(request).enqueue(new Callback() {
+    /**
+     * 将字符串回调适配为对象回调
+     */
+    private static ObjectCallback<String> adapt(final HttpCallback callback) {
+        if (callback == null) {
+            return null;
+        }
+        return new ObjectCallback<String>() {
             @Override
-            public void onFailure(Call call, final IOException e) {
-                UIUtils.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (callback != null) {
-                            callback.onFailure(e.getMessage());
-                        }
-                    }
-                });
+            public void onSuccess(String data) {
+                callback.onSuccess(data);
             }
 
             @Override
-            public void onResponse(Call call, final Response response) throws IOException {
-                final String responseData = response.body().string();
-                UIUtils.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (callback != null) {
-                            if (response.isSuccessful()) {
-                                callback.onSuccess(responseData);
-                            } else {
-                                callback.onFailure("请求失败，错误码：" + response.code());
-                            }
-                        }
-                    }
-                });
+            public void onFailure(String errorMsg) {
+                callback.onFailure(errorMsg);
             }
-        });
+        };
     }
 
     /**
-     * 将对象转换为JSON字符串并发送POST请求
-     * @param url 请求地址
-     * @param obj 要转换为JSON的对象
-     * @param callback 回调接口
+     * OkHttp回调适配，在工作线程解析响应后切换到回调线程，同时作为请求句柄
+     */
+    private static class ParsedCallback<T> implements Callback, RequestHandle {
+        private final Call call;
+        private final ResponseParser<T> parser;
+        private final ObjectCallback<T> callback;
+        private final Executor executor;
+        private volatile boolean canceled;
+        private volatile boolean finished;
+
+        ParsedCallback(Call call, ResponseParser<T> parser, ObjectCallback<T> callback, Executor executor) {
+            this.call = call;
+            this.parser = parser;
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            deliverFailure(e.getMessage());
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            final int code = response.code();
+            T data = null;
+            try {
+                if (response.isSuccessful()) {
+                    data = parser.parse(response.body());
+                }
+            } catch (IOException e) {
+                deliverFailure(e.getMessage());
+                return;
+            } finally {
+                response.close();
+            }
+            if (!isSuccessful(code)) {
+                deliverFailure(errorMessage(code));
+                return;
+            }
+            final T result = data;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    // 回调送达时才标记结束，提前标记会被RequestScope清理，之后页面销毁时取消不到
+                    finished = true;
+                    if (callback != null) {
+                        callback.onSuccess(result);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 在回调线程回调失败信息
+         */
+        private void deliverFailure(final String errorMsg) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled) {
+                        return;
+                    }
+                    finished = true;
+                    if (callback != null) {
+                        callback.onFailure(errorMsg);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            finished = true;
+            call.cancel();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    /**
+     * 文件下载回调接口
+     */
+    public interface DownloadCallback {
+        /**
+         * @param downloaded 已下载字节数
+         * @param total 文件总字节数，未知时为-1
+         */
+        void onProgress(long downloaded, long total);
+
+        void onSuccess(File file);
+
+        void onFailure(String errorMsg);
+    }
+
+    /**
+     * 请求句柄，可交给{@link RequestScope}随页面生命周期自动取消
+     */
+    public interface RequestHandle {
+        /**
+         * 取消请求，取消后不再回调
+         */
+        void cancel();
+
+        boolean isCanceled();
+
+        /**
+         * 请求是否已结束（已回调或已取消）
+         */
+        boolean isFinished();
+    }
+
+    /**
+     * 请求优先级
+     */
+    public enum Priority {
+        /**
+         * 用户可见的交互请求（首屏、点击触发），最先调度
+         */
+        INTERACTIVE,
+        /**
+         * 预取，应用进入后台时排队中的请求会被丢弃
+         */
+        PREFETCH,
+        /**
+         * 后台任务（统计、同步等），应用进入后台时暂停调度
+         */
+        BACKGROUND
+    }
+
+    /**
+     * GET请求缓存策略
+     */
+    public enum CachePolicy {
+        /**
+         * 遵循HTTP缓存语义：缓存新鲜直接使用，过期则携带ETag/Last-Modified条件请求
+         */
+        DEFAULT,
+        /**
+         * 只走网络，不读缓存（响应仍会写入缓存）
+         */
+        NETWORK_ONLY,
+        /**
+         * 缓存优先：有缓存（即使已过期）直接使用，无缓存才走网络
+         */
+        CACHE_FIRST,
+        /**
+         * 先返回缓存，同时后台刷新缓存；无缓存时走网络
+         */
+        STALE_WHILE_REVALIDATE,
+        /**
+         * 网络优先，网络异常或服务端5xx时回退到缓存（离线可用）
+         */
+        STALE_IF_ERROR
+    }
+
+    /**
+     * token刷新器
      */
-    public void postObject(String url, Object obj, HttpCallback callback) {
-        String json = mGson.toJson(obj);
-        postJson(url, json, callback);
+    public interface TokenRefresher {
+        /**
+         * 同步刷新token，在OkHttp工作线程调用
+         * 注意：刷新接口本身不要依赖旧token，否则会再次触发401刷新
+         * @param expiredToken 已失效的token
+         * @return 新token，刷新失败返回null
+         */
+        String refreshToken(String expiredToken) throws IOException;
     }
 
     /**
@@ -316,4 +1287,12 @@ public class OkHttpUtil {
         void onSuccess(String response);
         void onFailure(String errorMsg);
     }
+
+    /**
+     * 对象类型的网络请求回调接口，数据已在工作线程解析完成
+     */
+    public interface ObjectCallback<T> {
+        void onSuccess(T data);
+        void onFailure(String errorMsg);
+    }
 }
@@ -0,0 +1,68 @@
+package com.firm.pro.utils;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.text.TextUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 进程工具类
+ * 广告SDK（穿山甲、优量汇等）会在独立进程中运行部分组件，每个进程都会执行Application.onCreate，
+ * 初始化时据此区分主进程和子进程，子进程只做必要的初始化
+ */
+public class ProcessUtils {
+    private static volatile String sProcessName;
+
+    private ProcessUtils() {
+    }
+
+    /**
+     * 当前进程名，主进程为包名，子进程为"包名:后缀"
+     */
+    public static String getProcessName() {
+        String name = sProcessName;
+        if (name == null) {
+            name = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? Application.getProcessName() : readCmdline();
+            sProcessName = name;
+        }
+        return name;
+    }
+
+    /**
+     * 当前是否为主进程，无法获取进程名时按主进程处理
+     */
+    public static boolean isMainProcess(Context context) {
+        String name = getProcessName();
+        return TextUtils.isEmpty(name) || context.getPackageName().equals(name);
+    }
+
+    /**
+     * 从/proc/self/cmdline读取进程名，不经过Binder调用
+     */
+    private static String readCmdline() {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream("/proc/self/cmdline");
+            byte[] buffer = new byte[256];
+            int length = in.read(buffer);
+            int end = 0;
+            while (end < length && buffer[end] != 0) {
+                end++;
+            }
+            return new String(buffer, 0, end, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return "";
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
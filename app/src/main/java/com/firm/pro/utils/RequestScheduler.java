@@ -0,0 +1,310 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * 按优先级调度网络请求
+ * 每个优先级一条队列、独立并发上限，空出名额时总是先调度高优先级队列，
+ * 低优先级请求数量有限，不会占满OkHttp Dispatcher，交互请求无需排在它们后面。
+ * 应用进入后台时丢弃排队中的预取请求，暂停后台请求，回到前台后继续。
+ * 重试退避期间请求让出并发名额，退避结束后排到本优先级队首重新等待名额
+ */
+class RequestScheduler {
+    private static final OkHttpUtil.Priority[] PRIORITIES = OkHttpUtil.Priority.values();
+    // 等待期间检查请求是否已取消的间隔
+    private static final long CANCEL_POLL_MILLIS = 100;
+
+    private final int[] mLimits = new int[PRIORITIES.length];
+    private final int[] mRunning = new int[PRIORITIES.length];
+    private final List<ArrayDeque<Pending>> mQueues = new ArrayList<>();
+    // 已开始执行的请求，重试退避时据此找到所占名额
+    private final Map<Call, Pending> mStarted = new HashMap<>();
+    // 让出名额退避中的请求数，它们仍占用Dispatcher线程
+    private int mWaiting;
+    private boolean mAppInBackground;
+
+    /**
+     * @param interactiveLimit 交互请求并发上限
+     * @param prefetchLimit 预取请求并发上限
+     * @param backgroundLimit 后台请求并发上限
+     */
+    RequestScheduler(int interactiveLimit, int prefetchLimit, int backgroundLimit) {
+        mLimits[OkHttpUtil.Priority.INTERACTIVE.ordinal()] = interactiveLimit;
+        mLimits[OkHttpUtil.Priority.PREFETCH.ordinal()] = prefetchLimit;
+        mLimits[OkHttpUtil.Priority.BACKGROUND.ordinal()] = backgroundLimit;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            mQueues.add(new ArrayDeque<Pending>());
+        }
+    }
+
+    /**
+     * 所有优先级并发上限之和，OkHttp Dispatcher的单域名上限不应低于该值
+     */
+    int totalLimit() {
+        int total = 0;
+        for (int limit : mLimits) {
+            total += limit;
+        }
+        return total;
+    }
+
+    /**
+     * 同时在Dispatcher中执行的请求上限：占用名额的请求加上让出名额退避中的请求。
+     * Dispatcher的上限不应低于该值，否则退避中的请求占满线程后，拿到名额的请求无法执行
+     */
+    int maxInFlight() {
+        return totalLimit() * 2;
+    }
+
+    /**
+     * 提交请求，优先级取自请求的{@link OkHttpUtil.Priority}标签，默认交互优先级
+     */
+    void enqueue(Call call, Callback callback) {
+        List<Pending> ready;
+        synchronized (this) {
+            mQueues.get(priorityOf(call).ordinal()).add(new Pending(call, callback));
+            ready = collectReady();
+        }
+        start(ready);
+    }
+
+    /**
+     * 提升排队中请求的优先级（如合并请求时有更高优先级的调用方加入），已开始的请求不受影响
+     */
+    void promote(Call call, OkHttpUtil.Priority priority) {
+        List<Pending> ready;
+        synchronized (this) {
+            for (int i = priority.ordinal() + 1; i < PRIORITIES.length; i++) {
+                Iterator<Pending> iterator = mQueues.get(i).iterator();
+                while (iterator.hasNext()) {
+                    Pending pending = iterator.next();
+                    if (pending.call == call && !pending.started) {
+                        iterator.remove();
+                        mQueues.get(priority.ordinal()).add(pending);
+                    }
+                }
+            }
+            ready = collectReady();
+        }
+        start(ready);
+    }
+
+    /**
+     * 应用前后台切换
+     */
+    void setAppInBackground(boolean background) {
+        List<Pending> dropped = new ArrayList<>();
+        List<Pending> ready;
+        synchronized (this) {
+            mAppInBackground = background;
+            if (background) {
+                // 预取结果在后台已无意义，直接丢弃
+                dropped.addAll(mQueues.get(OkHttpUtil.Priority.PREFETCH.ordinal()));
+                mQueues.get(OkHttpUtil.Priority.PREFETCH.ordinal()).clear();
+            }
+            ready = collectReady();
+        }
+        for (Pending pending : dropped) {
+            pending.call.cancel();
+            // 退避中的请求仍在执行，取消后由其自身的回调报告失败
+            if (!pending.started) {
+                pending.callback.onFailure(pending.call, new IOException("Canceled: app in background"));
+            }
+        }
+        start(ready);
+    }
+
+    /**
+     * 重试前的退避等待，在拦截器所在的Dispatcher线程调用。
+     * 等待期间让出请求所占的并发名额，结束后排在本优先级队首重新获取名额；
+     * 请求被取消时立即结束等待并抛出异常。未经调度器提交的请求（如同步请求）
+     * 或退避中的请求已达上限时，不让出名额，只做可取消的等待
+     */
+    void awaitRetry(Call call, long delayMillis) throws IOException {
+        Pending pending;
+        List<Pending> ready;
+        synchronized (this) {
+            pending = mStarted.get(call);
+            if (pending == null || mWaiting >= maxInFlight() - totalLimit()) {
+                pending = null;
+                ready = null;
+            } else {
+                mWaiting++;
+                mRunning[pending.lane]--;
+                ready = collectReady();
+            }
+        }
+        if (pending == null) {
+            sleepUnlessCanceled(call, delayMillis);
+            return;
+        }
+        start(ready);
+
+        CountDownLatch resumed = new CountDownLatch(1);
+        try {
+            sleepUnlessCanceled(call, delayMillis);
+            synchronized (this) {
+                pending.resumed = resumed;
+                mQueues.get(pending.lane).addFirst(pending);
+                ready = collectReady();
+            }
+            start(ready);
+            while (!resumed.await(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkCanceled(call);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("retry interrupted");
+        } finally {
+            // 无论是否取消都重新占用名额，请求结束时由ReleasingCallback统一释放
+            synchronized (this) {
+                mWaiting--;
+                if (pending.resumed == resumed) {
+                    mQueues.get(pending.lane).remove(pending);
+                    pending.resumed = null;
+                    mRunning[pending.lane]++;
+                } else if (resumed.getCount() > 0) {
+                    mRunning[pending.lane]++;
+                }
+            }
+        }
+    }
+
+    static OkHttpUtil.Priority priorityOf(Call call) {
+        OkHttpUtil.Priority priority = call.request().tag(OkHttpUtil.Priority.class);
+        return priority != null ? priority : OkHttpUtil.Priority.INTERACTIVE;
+    }
+
+    /**
+     * 从高到低取出可以开始的请求，调用方需持有锁
+     */
+    private List<Pending> collectReady() {
+        List<Pending> ready = null;
+        for (OkHttpUtil.Priority priority : PRIORITIES) {
+            // 后台时暂停后台优先级请求
+            if (mAppInBackground && priority == OkHttpUtil.Priority.BACKGROUND) {
+                continue;
+            }
+            int lane = priority.ordinal();
+            ArrayDeque<Pending> queue = mQueues.get(lane);
+            while (mRunning[lane] < mLimits[lane] && !queue.isEmpty()) {
+                Pending pending = queue.poll();
+                pending.lane = lane;
+                mRunning[lane]++;
+                if (pending.resumed != null) {
+                    // 退避结束的请求已在执行，唤醒即可
+                    pending.resumed.countDown();
+                    pending.resumed = null;
+                    continue;
+                }
+                pending.started = true;
+                mStarted.put(pending.call, pending);
+                if (ready == null) {
+                    ready = new ArrayList<>();
+                }
+                ready.add(pending);
+            }
+        }
+        return ready;
+    }
+
+    private void start(List<Pending> ready) {
+        if (ready == null) {
+            return;
+        }
+        for (Pending pending : ready) {
+            pending.call.enqueue(new ReleasingCallback(pending));
+        }
+    }
+
+    private void release(Pending pending) {
+        List<Pending> ready;
+        synchronized (this) {
+            mStarted.remove(pending.call);
+            mRunning[pending.lane]--;
+            ready = collectReady();
+        }
+        start(ready);
+    }
+
+    private static void sleepUnlessCanceled(Call call, long millis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        try {
+            while (true) {
+                checkCanceled(call);
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return;
+                }
+                Thread.sleep(Math.min(remaining, CANCEL_POLL_MILLIS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("retry interrupted");
+        }
+    }
+
+    private static void checkCanceled(Call call) throws IOException {
+        if (call.isCanceled()) {
+            throw new IOException("Canceled");
+        }
+    }
+
+    private static class Pending {
+        final Call call;
+        final Callback callback;
+        int lane;
+        // 以下字段由调度器的锁保护
+        // 是否已开始执行
+        boolean started;
+        // 退避结束、排队等待名额时非空，获得名额时计数归零
+        CountDownLatch resumed;
+
+        Pending(Call call, Callback callback) {
+            this.call = call;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * 请求结束（回调执行完）后释放并发名额
+     */
+    private class ReleasingCallback implements Callback {
+        private final Pending pending;
+
+        ReleasingCallback(Pending pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            try {
+                pending.callback.onFailure(call, e);
+            } finally {
+                release(pending);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            try {
+                pending.callback.onResponse(call, response);
+            } finally {
+                release(pending);
+            }
+        }
+    }
+}
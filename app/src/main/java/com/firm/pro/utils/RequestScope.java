@@ -0,0 +1,95 @@
+package com.firm.pro.utils;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 请求作用域，统一管理一组网络请求并在页面销毁时批量取消
+ * 使用示例（Fragment中）：
+ * <pre>
+ * mRequestScope = RequestScope.of(getViewLifecycleOwner()); // onDestroyView时自动取消
+ * mRequestScope.add(OkHttpUtil.getInstance().get(url, params, callback));
+ * </pre>
+ */
+public class RequestScope {
+    private final Set<OkHttpUtil.RequestHandle> mHandles = new HashSet<>();
+    private boolean mCanceled;
+
+    public RequestScope() {
+    }
+
+    /**
+     * 创建与生命周期绑定的作用域，ON_DESTROY时自动取消所有请求
+     * Activity传入自身（onDestroy取消），Fragment传入getViewLifecycleOwner()（onDestroyView取消）
+     * 注意：必须在主线程调用
+     */
+    public static RequestScope of(LifecycleOwner owner) {
+        final RequestScope scope = new RequestScope();
+        Lifecycle lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            scope.cancelAll();
+            return scope;
+        }
+        lifecycle.addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
+                if (event == Lifecycle.Event.ON_DESTROY) {
+                    source.getLifecycle().removeObserver(this);
+                    scope.cancelAll();
+                }
+            }
+        });
+        return scope;
+    }
+
+    /**
+     * 将请求加入作用域，作用域已取消时立即取消该请求
+     * @return 传入的请求句柄
+     */
+    public OkHttpUtil.RequestHandle add(OkHttpUtil.RequestHandle handle) {
+        if (handle == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (!mCanceled) {
+                // 顺便清理已结束的请求，避免长期持有
+                Iterator<OkHttpUtil.RequestHandle> iterator = mHandles.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isFinished()) {
+                        iterator.remove();
+                    }
+                }
+                mHandles.add(handle);
+                return handle;
+            }
+        }
+        handle.cancel();
+        return handle;
+    }
+
+    /**
+     * 取消作用域内所有请求，之后加入的请求也会被立即取消
+     */
+    public void cancelAll() {
+        List<OkHttpUtil.RequestHandle> handles;
+        synchronized (this) {
+            mCanceled = true;
+            handles = new ArrayList<>(mHandles);
+            mHandles.clear();
+        }
+        for (OkHttpUtil.RequestHandle handle : handles) {
+            handle.cancel();
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+}
@@ -0,0 +1,66 @@
+package com.firm.pro.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+import okhttp3.ResponseBody;
+
+/**
+ * 响应体解析器，在OkHttp工作线程中执行
+ * @param <T> 解析结果类型
+ */
+abstract class ResponseParser<T> {
+
+    /**
+     * 原样读取为字符串
+     */
+    static final ResponseParser<String> STRING = new ResponseParser<String>() {
+        @Override
+        String parse(ResponseBody body) throws IOException {
+            return body.string();
+        }
+
+        @Override
+        String key() {
+            return "string";
+        }
+    };
+
+    /**
+     * 使用Gson的JsonReader直接从响应流解析为对象，不生成中间字符串
+     */
+    static <T> ResponseParser<T> json(final Gson gson, final TypeToken<T> typeToken) {
+        return new ResponseParser<T>() {
+            @Override
+            T parse(ResponseBody body) throws IOException {
+                JsonReader reader = new JsonReader(body.charStream());
+                try {
+                    return gson.fromJson(reader, typeToken.getType());
+                } catch (JsonParseException e) {
+                    throw new IOException("数据解析失败：" + e.getMessage(), e);
+                } finally {
+                    reader.close();
+                }
+            }
+
+            @Override
+            String key() {
+                return typeToken.toString();
+            }
+        };
+    }
+
+    /**
+     * 解析响应体，调用方负责在解析后关闭响应
+     */
+    abstract T parse(ResponseBody body) throws IOException;
+
+    /**
+     * 解析器标识，相同标识的解析结果可以在合并请求间共享
+     */
+    abstract String key();
+}
@@ -0,0 +1,140 @@
+package com.firm.pro.utils;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 重试及熔断拦截器，需作为最外层拦截器添加，保证每次重试都重新经过token等拦截器。
+ * 退避等待交给{@link RequestScheduler}，等待期间让出并发名额，请求取消时立即结束
+ */
+class RetryInterceptor implements Interceptor {
+    private final RequestScheduler mScheduler;
+    private volatile RetryPolicy mPolicy;
+    // 每个域名一个熔断器
+    private final Map<String, CircuitBreaker> mBreakers = new ConcurrentHashMap<>();
+
+    RetryInterceptor(RetryPolicy policy, RequestScheduler scheduler) {
+        this.mPolicy = policy;
+        this.mScheduler = scheduler;
+    }
+
+    void setPolicy(RetryPolicy policy) {
+        this.mPolicy = policy;
+        // 熔断参数可能变化，重新统计
+        mBreakers.clear();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        // 只读缓存的请求不访问网络，无需重试和熔断
+        if (request.cacheControl().onlyIfCached()) {
+            return chain.proceed(request);
+        }
+        RetryPolicy policy = mPolicy;
+        String host = request.url().host();
+        CircuitBreaker breaker = policy.isCircuitBreakerEnabled() ? breakerFor(host, policy) : null;
+        boolean retryable = policy.isIdempotent(request.method());
+
+        int attempt = 0;
+        while (true) {
+            if (breaker != null && !breaker.tryAcquire()) {
+                throw new CircuitBreaker.CircuitOpenException(host);
+            }
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (chain.call().isCanceled()) {
+                    if (breaker != null) {
+                        breaker.release();
+                    }
+                    throw e;
+                }
+                if (breaker != null) {
+                    breaker.onFailure();
+                }
+                if (!retryable || attempt >= policy.maxRetries) {
+                    throw e;
+                }
+                mScheduler.awaitRetry(chain.call(), policy.backoffMillis(attempt));
+                attempt++;
+                continue;
+            }
+
+            int code = response.code();
+            if (breaker != null) {
+                if (response.networkResponse() == null) {
+                    // 命中缓存，不反映服务状态
+                    breaker.release();
+                } else if (code >= 500) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            }
+
+            if (!retryable || attempt >= policy.maxRetries || !policy.isRetryableCode(code)) {
+                return response;
+            }
+            long delay = retryAfterMillis(response);
+            if (delay < 0) {
+                delay = policy.backoffMillis(attempt);
+            } else if (delay > policy.maxRetryAfterMillis) {
+                // 服务端要求等待过久，直接返回响应由调用方处理
+                return response;
+            }
+            response.close();
+            mScheduler.awaitRetry(chain.call(), delay);
+            attempt++;
+        }
+    }
+
+    private CircuitBreaker breakerFor(String host, RetryPolicy policy) {
+        CircuitBreaker breaker = mBreakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(policy.failureThreshold, policy.openMillis);
+            breaker = mBreakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * 解析Retry-After头，支持秒数和HTTP日期两种格式
+     * @return 等待毫秒数，没有或无法解析时返回-1
+     */
+    private static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+            // 不是秒数，尝试按HTTP日期解析
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
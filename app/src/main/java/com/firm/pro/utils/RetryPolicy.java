@@ -0,0 +1,131 @@
+package com.firm.pro.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 网络请求重试及熔断策略
+ * 只重试幂等请求（GET/HEAD/PUT/DELETE/OPTIONS），退避时间按指数增长并加入随机抖动，
+ * 服务端返回Retry-After时优先使用；同一域名连续失败达到阈值后熔断，熔断期内直接失败，
+ * 到期后放行一个探测请求，成功则恢复
+ */
+public class RetryPolicy {
+    /**
+     * 默认策略：最多重试2次，连续失败5次熔断30秒
+     */
+    public static final RetryPolicy DEFAULT = new Builder().build();
+    /**
+     * 不重试、不熔断
+     */
+    public static final RetryPolicy NONE = new Builder().maxRetries(0).failureThreshold(0).build();
+
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE")));
+
+    final int maxRetries;
+    final long baseDelayMillis;
+    final long maxDelayMillis;
+    final long maxRetryAfterMillis;
+    final Set<Integer> retryableCodes;
+    final int failureThreshold;
+    final long openMillis;
+
+    private RetryPolicy(Builder builder) {
+        this.maxRetries = builder.maxRetries;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.maxRetryAfterMillis = builder.maxRetryAfterMillis;
+        this.retryableCodes = Collections.unmodifiableSet(new HashSet<>(builder.retryableCodes));
+        this.failureThreshold = builder.failureThreshold;
+        this.openMillis = builder.openMillis;
+    }
+
+    boolean isIdempotent(String method) {
+        return IDEMPOTENT_METHODS.contains(method);
+    }
+
+    boolean isRetryableCode(int code) {
+        return retryableCodes.contains(code);
+    }
+
+    boolean isCircuitBreakerEnabled() {
+        return failureThreshold > 0;
+    }
+
+    /**
+     * 第attempt次重试前的等待时间（full jitter）：[0, min(maxDelay, baseDelay * 2^attempt)]内随机
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt, 20);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public static class Builder {
+        private int maxRetries = 2;
+        private long baseDelayMillis = 500;
+        private long maxDelayMillis = 8000;
+        private long maxRetryAfterMillis = 30000;
+        private Set<Integer> retryableCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+        private int failureThreshold = 5;
+        private long openMillis = 30000;
+
+        /**
+         * 最大重试次数，0表示不重试
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * 退避基础时间及上限
+         */
+        public Builder backoff(long baseDelayMillis, long maxDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Retry-After超过该值时不再重试，直接返回响应
+         */
+        public Builder maxRetryAfter(long maxRetryAfterMillis) {
+            this.maxRetryAfterMillis = maxRetryAfterMillis;
+            return this;
+        }
+
+        /**
+         * 需要重试的HTTP状态码
+         */
+        public Builder retryableCodes(Set<Integer> retryableCodes) {
+            this.retryableCodes = new HashSet<>(retryableCodes);
+            return this;
+        }
+
+        /**
+         * 熔断阈值：同一域名连续失败次数，0表示关闭熔断
+         */
+        public Builder failureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * 熔断持续时间，到期后放行一个探测请求
+         */
+        public Builder openDuration(long openMillis) {
+            this.openMillis = openMillis;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
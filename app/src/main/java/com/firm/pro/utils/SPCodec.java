@@ -0,0 +1,120 @@
+package com.firm.pro.utils;
+
+import android.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * SPUtils对象存储的编解码器，把对象与SP中保存的字符串互相转换
+ * 默认使用{@link #gson(Class)}；对体积敏感的对象可继承{@link Binary}按字段写入二进制
+ * 注意：解码结果会被缓存并共享，调用方不要修改读取到的对象
+ */
+public interface SPCodec<T> {
+
+    String encode(T value);
+
+    /**
+     * @throws IllegalArgumentException 数据无法解码时
+     */
+    T decode(String data);
+
+    /**
+     * 按类型使用Gson编解码
+     */
+    static <T> SPCodec<T> gson(Class<T> clazz) {
+        return new GsonCodec<>(clazz);
+    }
+
+    /**
+     * 按泛型类型使用Gson编解码，如new TypeToken<List<User>>(){}
+     */
+    static <T> SPCodec<T> gson(TypeToken<T> typeToken) {
+        return new GsonCodec<>(typeToken.getType());
+    }
+
+    final class GsonCodec<T> implements SPCodec<T> {
+        private static final Gson GSON = new Gson();
+        private final Type mType;
+
+        private GsonCodec(Type type) {
+            this.mType = type;
+        }
+
+        @Override
+        public String encode(T value) {
+            return GSON.toJson(value, mType);
+        }
+
+        @Override
+        public T decode(String data) {
+            try {
+                return GSON.fromJson(data, mType);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("JSON解析失败：" + mType, e);
+            }
+        }
+
+        /**
+         * 相同类型的编解码器视为相同，解码缓存据此判断是否命中
+         */
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GsonCodec && mType.equals(((GsonCodec<?>) o).mType);
+        }
+
+        @Override
+        public int hashCode() {
+            return mType.hashCode();
+        }
+    }
+
+    /**
+     * 紧凑的二进制编解码器，子类按固定顺序读写字段，结果以Base64保存
+     * 子类实例应复用（如定义为常量），解码缓存按实例判断是否命中
+     * 使用示例：
+     * static final SPCodec<Profile> PROFILE = new SPCodec.Binary<Profile>() {
+     *     protected void write(DataOutputStream out, Profile p) throws IOException {
+     *         out.writeUTF(p.name);
+     *         out.writeInt(p.level);
+     *     }
+     *     protected Profile read(DataInputStream in) throws IOException {
+     *         return new Profile(in.readUTF(), in.readInt());
+     *     }
+     * };
+     */
+    abstract class Binary<T> implements SPCodec<T> {
+
+        protected abstract void write(DataOutputStream out, T value) throws IOException;
+
+        protected abstract T read(DataInputStream in) throws IOException;
+
+        @Override
+        public final String encode(T value) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                write(new DataOutputStream(bytes), value);
+            } catch (IOException e) {
+                // 写入内存不会发生IO异常
+                throw new IllegalStateException(e);
+            }
+            return Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP);
+        }
+
+        @Override
+        public final T decode(String data) {
+            try {
+                return read(new DataInputStream(new ByteArrayInputStream(Base64.decode(data, Base64.NO_WRAP))));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("二进制数据解析失败", e);
+            }
+        }
+    }
+}
@@ -3,36 +3,115 @@ package com.firm.pro.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.os.Looper;
 import android.text.TextUtils;
+import android.util.Log;
 
+import com.firm.pro.BuildConfig;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 多文件SharedPreferences工具类
  * 支持操作不同名称的SP文件，线程安全且避免内存泄漏
+ * 存储后端可替换：默认系统SharedPreferences，也可使用内存映射存储{@link Backend#MMAP}
+ * 多个字段一起修改时使用{@link #batch(String)}一次提交；频繁写入可通过{@link #setWriteDelay(long)}合并写入
+ * init时传入的预加载文件在后台线程加载，主线程首次读取时不再等待磁盘IO
+ * 对象通过{@link #putObject}/{@link #getObject}存取，解码结果缓存在内存中，写入或文件变更时失效
  */
 public class SPUtils {
+    private static final String TAG = SPUtils.class.getSimpleName();
+    // 待写入值中表示删除的标记
+    private static final Object REMOVED = new Object();
+    // 没有待写入值
+    private static final Object NONE = new Object();
+    // 解码对象缓存的最大条数
+    private static final int OBJECT_CACHE_SIZE = 64;
     // 单例实例
     private static volatile SPUtils instance;
     // 全局Context（Application级别，避免内存泄漏）
     private Context mContext;
+    // 存储后端
+    private final Backend mBackend;
+    // 已加载完成的SP实例，避免每次操作都调用getSharedPreferences
+    private final Map<String, SharedPreferences> mSpCache = new ConcurrentHashMap<>();
+    // 等待文件加载完成的回调，由自身加锁保护
+    private final Map<String, List<Runnable>> mLoadCallbacks = new HashMap<>();
+    // 已提示过主线程冷读取的文件，每个文件只提示一次
+    private final Set<String> mColdReadReported = ConcurrentHashMap.newKeySet();
+    // 合并写入模式下尚未落盘的修改，每个SP文件一个，创建后不移除
+    private final ConcurrentHashMap<String, PendingWrites> mPending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService mIo = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SPUtils-io");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // 合并写入的时间窗口，0表示每次修改立即提交
+    private volatile long mWriteDelayMillis;
+    // 解码后的对象，key为文件名+键，由自身加锁保护
+    private final LinkedHashMap<String, DecodedObject> mObjectCache = new LinkedHashMap<String, DecodedObject>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DecodedObject> eldest) {
+            return size() > OBJECT_CACHE_SIZE;
+        }
+    };
+    // 每次失效递增，解码期间发生写入时不缓存旧值；由mObjectCache保护
+    private int mObjectVersion;
+    // 缓存过对象的文件的变更监听，SP以弱引用持有监听器，这里保持强引用
+    private final ConcurrentHashMap<String, SharedPreferences.OnSharedPreferenceChangeListener> mObjectWatchers = new ConcurrentHashMap<>();
 
     // 私有构造方法，防止外部实例化
-    private SPUtils(Context context) {
+    private SPUtils(Context context, Backend backend) {
         // 持有Application Context，避免Activity Context导致的内存泄漏
         this.mContext = context.getApplicationContext();
+        this.mBackend = backend;
+        // 进入后台时立即落盘合并中的修改，避免进程被回收时丢失
+        ForegroundTracker.addListener(new ForegroundTracker.Listener() {
+            @Override
+            public void onForegroundChanged(boolean foreground) {
+                if (!foreground) {
+                    flushAsync();
+                }
+            }
+        });
     }
 
     /**
-     * 初始化工具类（必须在Application中调用）
+     * 初始化工具类（必须在Application中调用），使用系统SharedPreferences存储
      * @param context 建议传入Application实例
      */
     public static void init(Context context) {
+        init(context, Backend.PLATFORM);
+    }
+
+    /**
+     * 初始化工具类并指定存储后端
+     * @param context 建议传入Application实例
+     * @param backend 存储后端，如{@link Backend#MMAP}
+     * @param preloadNames 需要在后台线程预加载的SP文件，按顺序加载，启动时最先读取的文件放在前面
+     */
+    public static void init(Context context, Backend backend, String... preloadNames) {
         if (instance == null) {
             synchronized (SPUtils.class) {
                 if (instance == null) {
-                    instance = new SPUtils(context);
+                    instance = new SPUtils(context, backend);
+                    instance.preload(preloadNames);
                 }
             }
         }
@@ -56,8 +135,265 @@ public class SPUtils {
         if (TextUtils.isEmpty(spName)) {
             throw new IllegalArgumentException("SP文件名不能为空");
         }
-        // 模式默认使用MODE_PRIVATE（仅当前应用可访问）
-        return mContext.getSharedPreferences(spName, Context.MODE_PRIVATE);
+        SharedPreferences sp = mSpCache.get(spName);
+        if (sp != null) {
+            return sp;
+        }
+        if (BuildConfig.DEBUG && Looper.myLooper() == Looper.getMainLooper() && mColdReadReported.add(spName)) {
+            // 主线程读取未加载的文件会阻塞到整个文件读取解析完成，应加入预加载列表
+            Log.w(TAG, "主线程读取未预加载的SP文件：" + spName, new Throwable());
+        }
+        return load(spName);
+    }
+
+    // ========== 预加载 ==========
+
+    /**
+     * 在后台线程按顺序加载SP文件
+     */
+    public void preload(String... spNames) {
+        for (final String spName : spNames) {
+            mIo.execute(new Runnable() {
+                @Override
+                public void run() {
+                    load(spName);
+                }
+            });
+        }
+    }
+
+    /**
+     * 文件是否已加载完成，已加载时读取不会阻塞
+     */
+    public boolean isLoaded(String spName) {
+        return mSpCache.containsKey(spName);
+    }
+
+    /**
+     * 文件加载完成后在主线程回调，不阻塞调用线程；已加载时也通过主线程回调
+     * 文件不在预加载列表中时会在后台线程加载
+     */
+    public void awaitLoaded(String spName, Runnable callback) {
+        synchronized (mLoadCallbacks) {
+            if (!mSpCache.containsKey(spName)) {
+                List<Runnable> callbacks = mLoadCallbacks.get(spName);
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>();
+                    mLoadCallbacks.put(spName, callbacks);
+                    preload(spName);
+                }
+                callbacks.add(callback);
+                return;
+            }
+        }
+        UIUtils.runOnUiThread(callback);
+    }
+
+    /**
+     * 打开并等待文件加载完成，然后通知等待的回调
+     */
+    private SharedPreferences load(String spName) {
+        SharedPreferences sp = mSpCache.get(spName);
+        if (sp != null) {
+            return sp;
+        }
+        sp = mBackend.open(mContext, spName);
+        // 系统SharedPreferences在子线程异步加载，任一读取都会等待加载完成
+        sp.contains(spName);
+        List<Runnable> callbacks;
+        synchronized (mLoadCallbacks) {
+            mSpCache.put(spName, sp);
+            callbacks = mLoadCallbacks.remove(spName);
+        }
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                UIUtils.runOnUiThread(callback);
+            }
+        }
+        return sp;
+    }
+
+    // ========== 批量与合并写入 ==========
+
+    /**
+     * 开始一批修改，调用apply()或commit()后作为一次写入提交，要么全部生效要么都不生效
+     * 使用示例：
+     * SPUtils.getInstance().batch(SPFileName.USER_INFO)
+     *         .putString("token", token)
+     *         .putLong("expire", expire)
+     *         .apply();
+     */
+    public Batch batch(String spName) {
+        return new Batch(spName);
+    }
+
+    /**
+     * 设置合并写入的时间窗口：窗口内对同一文件的多次修改只写一次磁盘，并在后台线程同步提交，
+     * 不进入系统的QueuedWork，页面onPause/onStop时不会等待写盘。读取会优先返回尚未落盘的值。
+     * 应用进入后台时立即落盘。
+     * @param delayMillis 时间窗口，0表示关闭（每次修改立即apply），关闭时会同步落盘已合并的修改
+     */
+    public void setWriteDelay(long delayMillis) {
+        mWriteDelayMillis = delayMillis;
+        if (delayMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即把合并中的修改写入磁盘（同步，避免在主线程调用）
+     */
+    public void flush() {
+        for (Map.Entry<String, PendingWrites> entry : mPending.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void flushAsync() {
+        mIo.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * 写入一个键值，value为REMOVED表示删除
+     */
+    private void write(String spName, String key, Object value) {
+        if (value == null) {
+            // 与SharedPreferences一致，写入null等同于删除
+            value = REMOVED;
+        }
+        if (mWriteDelayMillis > 0) {
+            PendingWrites pending = pendingOf(spName);
+            synchronized (pending) {
+                pending.values.put(key, value);
+            }
+            // 新值对读取可见后再让解码缓存失效，否则并发的getObject可能把旧值缓存到新版本下
+            invalidate(spName, key);
+            scheduleFlush(spName, pending);
+            return;
+        }
+        Editor editor = getSp(spName).edit();
+        put(editor, key, value);
+        editor.apply(); // 异步提交（推荐，不阻塞主线程）
+        invalidate(spName, key);
+    }
+
+    private PendingWrites pendingOf(String spName) {
+        PendingWrites pending = mPending.get(spName);
+        if (pending == null) {
+            getSp(spName);
+            pending = new PendingWrites();
+            PendingWrites existing = mPending.putIfAbsent(spName, pending);
+            if (existing != null) {
+                pending = existing;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 窗口内第一次修改时安排落盘，之后的修改合并进同一次写入
+     */
+    private void scheduleFlush(final String spName, final PendingWrites pending) {
+        synchronized (pending) {
+            if (pending.scheduled) {
+                return;
+            }
+            pending.scheduled = true;
+        }
+        mIo.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(spName, pending);
+            }
+        }, mWriteDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 提交合并中的修改，提交完成后才从待写入值中移除，期间读取仍能看到最新值
+     * 同一文件的提交串行执行，避免较早的快照后提交覆盖较新的值
+     * @return 是否写入成功，没有待写入的修改时返回true
+     */
+    private boolean flush(String spName, PendingWrites pending) {
+        synchronized (pending.flushLock) {
+            Map<String, Object> values;
+            boolean cleared;
+            int clearCount;
+            synchronized (pending) {
+                pending.scheduled = false;
+                if (pending.values.isEmpty() && !pending.cleared) {
+                    return true;
+                }
+                values = new HashMap<>(pending.values);
+                cleared = pending.cleared;
+                clearCount = pending.clearCount;
+            }
+            Editor editor = getSp(spName).edit();
+            if (cleared) {
+                editor.clear();
+            }
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                put(editor, entry.getKey(), entry.getValue());
+            }
+            if (!editor.commit()) {
+                // 保留待写入值，读取仍返回最新值，下次落盘时重试
+                Log.e(TAG, "写入失败：" + spName);
+                return false;
+            }
+            synchronized (pending) {
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    if (pending.values.get(entry.getKey()) == entry.getValue()) {
+                        pending.values.remove(entry.getKey());
+                    }
+                }
+                // 提交期间没有再次清空时，清空已生效
+                if (cleared && pending.clearCount == clearCount) {
+                    pending.cleared = false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 读取尚未落盘的值：NONE表示没有，REMOVED表示已删除
+     */
+    private Object pendingValue(String spName, String key) {
+        PendingWrites pending = mPending.get(spName);
+        if (pending == null) {
+            return NONE;
+        }
+        synchronized (pending) {
+            if (pending.values.containsKey(key)) {
+                return pending.values.get(key);
+            }
+            return pending.cleared ? REMOVED : NONE;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Editor editor, String key, Object value) {
+        if (value == REMOVED) {
+            editor.remove(key);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        } else {
+            throw new IllegalArgumentException("不支持的类型：" + value);
+        }
     }
 
     // ========== 存储方法 ==========
@@ -69,54 +405,42 @@ public class SPUtils {
      * @param value 值
      */
     public void putString(String spName, String key, String value) {
-        Editor editor = getSp(spName).edit();
-        editor.putString(key, value);
-        editor.apply(); // 异步提交（推荐，不阻塞主线程）
+        write(spName, key, value);
     }
 
     /**
      * 存储int类型数据
      */
     public void putInt(String spName, String key, int value) {
-        Editor editor = getSp(spName).edit();
-        editor.putInt(key, value);
-        editor.apply();
+        write(spName, key, value);
     }
 
     /**
      * 存储boolean类型数据
      */
     public void putBoolean(String spName, String key, boolean value) {
-        Editor editor = getSp(spName).edit();
-        editor.putBoolean(key, value);
-        editor.apply();
+        write(spName, key, value);
     }
 
     /**
      * 存储float类型数据
      */
     public void putFloat(String spName, String key, float value) {
-        Editor editor = getSp(spName).edit();
-        editor.putFloat(key, value);
-        editor.apply();
+        write(spName, key, value);
     }
 
     /**
      * 存储long类型数据
      */
     public void putLong(String spName, String key, long value) {
-        Editor editor = getSp(spName).edit();
-        editor.putLong(key, value);
-        editor.apply();
+        write(spName, key, value);
     }
 
     /**
      * 存储Set<String>类型数据
      */
     public void putStringSet(String spName, String key, Set<String> value) {
-        Editor editor = getSp(spName).edit();
-        editor.putStringSet(key, value);
-        editor.apply();
+        write(spName, key, value);
     }
 
     // ========== 获取方法 ==========
@@ -126,6 +450,10 @@ public class SPUtils {
      * @param defaultValue 默认值（当key不存在时返回）
      */
     public String getString(String spName, String key, String defaultValue) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending == REMOVED ? defaultValue : (String) pending;
+        }
         return getSp(spName).getString(key, defaultValue);
     }
 
@@ -133,6 +461,10 @@ public class SPUtils {
      * 获取int类型数据
      */
     public int getInt(String spName, String key, int defaultValue) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending == REMOVED ? defaultValue : (Integer) pending;
+        }
         return getSp(spName).getInt(key, defaultValue);
     }
 
@@ -140,6 +472,10 @@ public class SPUtils {
      * 获取boolean类型数据
      */
     public boolean getBoolean(String spName, String key, boolean defaultValue) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending == REMOVED ? defaultValue : (Boolean) pending;
+        }
         return getSp(spName).getBoolean(key, defaultValue);
     }
 
@@ -147,6 +483,10 @@ public class SPUtils {
      * 获取float类型数据
      */
     public float getFloat(String spName, String key, float defaultValue) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending == REMOVED ? defaultValue : (Float) pending;
+        }
         return getSp(spName).getFloat(key, defaultValue);
     }
 
@@ -154,13 +494,22 @@ public class SPUtils {
      * 获取long类型数据
      */
     public long getLong(String spName, String key, long defaultValue) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending == REMOVED ? defaultValue : (Long) pending;
+        }
         return getSp(spName).getLong(key, defaultValue);
     }
 
     /**
      * 获取Set<String>类型数据
      */
+    @SuppressWarnings("unchecked")
     public Set<String> getStringSet(String spName, String key, Set<String> defaultValue) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending == REMOVED ? defaultValue : (Set<String>) pending;
+        }
         return getSp(spName).getStringSet(key, defaultValue);
     }
 
@@ -170,24 +519,24 @@ public class SPUtils {
      * 移除某个key
      */
     public void remove(String spName, String key) {
-        Editor editor = getSp(spName).edit();
-        editor.remove(key);
-        editor.apply();
+        write(spName, key, REMOVED);
     }
 
     /**
      * 清空某个SP文件的所有数据
      */
     public void clear(String spName) {
-        Editor editor = getSp(spName).edit();
-        editor.clear();
-        editor.apply();
+        batch(spName).clear().apply();
     }
 
     /**
      * 判断某个key是否存在
      */
     public boolean contains(String spName, String key) {
+        Object pending = pendingValue(spName, key);
+        if (pending != NONE) {
+            return pending != REMOVED;
+        }
         return getSp(spName).contains(key);
     }
 
@@ -195,6 +544,329 @@ public class SPUtils {
      * 获取某个SP文件的所有键值对
      */
     public Map<String, ?> getAll(String spName) {
-        return getSp(spName).getAll();
+        PendingWrites pending = mPending.get(spName);
+        if (pending == null) {
+            return getSp(spName).getAll();
+        }
+        synchronized (pending) {
+            Map<String, Object> all = new HashMap<>();
+            if (!pending.cleared) {
+                all.putAll(getSp(spName).getAll());
+            }
+            for (Map.Entry<String, Object> entry : pending.values.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    all.remove(entry.getKey());
+                } else {
+                    all.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return all;
+        }
+    }
+
+    /**
+     * 注册SP文件变更监听（回调在主线程）
+     * 注意：SharedPreferences内部以弱引用持有监听器，调用方需自行持有监听器的强引用
+     */
+    public void registerOnChangeListener(String spName, SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        getSp(spName).registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * 注销SP文件变更监听
+     */
+    public void unregisterOnChangeListener(String spName, SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        getSp(spName).unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    // ========== 对象存储 ==========
+
+    /**
+     * 使用Gson存储对象，value为null时删除
+     */
+    @SuppressWarnings("unchecked")
+    public void putObject(String spName, String key, Object value) {
+        putObject(spName, key, value, value != null ? (SPCodec<Object>) SPCodec.gson(value.getClass()) : null);
+    }
+
+    /**
+     * 使用指定编解码器存储对象，value为null时删除
+     */
+    public <T> void putObject(String spName, String key, T value, SPCodec<T> codec) {
+        write(spName, key, value != null ? codec.encode(value) : null);
+    }
+
+    /**
+     * 使用Gson读取对象，不存在或解析失败时返回null
+     */
+    public <T> T getObject(String spName, String key, Class<T> clazz) {
+        return getObject(spName, key, SPCodec.gson(clazz));
+    }
+
+    /**
+     * 使用Gson读取泛型对象，如new TypeToken<List<User>>(){}
+     */
+    public <T> T getObject(String spName, String key, TypeToken<T> typeToken) {
+        return getObject(spName, key, SPCodec.gson(typeToken));
+    }
+
+    /**
+     * 使用指定编解码器读取对象，不存在或解析失败时返回null
+     * 解码结果会被缓存并在多次读取间共享，调用方不要修改返回的对象
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(String spName, String key, SPCodec<T> codec) {
+        String cacheKey = objectKey(spName, key);
+        int version;
+        synchronized (mObjectCache) {
+            DecodedObject cached = mObjectCache.get(cacheKey);
+            if (cached != null && cached.codec.equals(codec)) {
+                return (T) cached.value;
+            }
+            version = mObjectVersion;
+        }
+        watch(spName);
+        String data = getString(spName, key, null);
+        if (data == null) {
+            return null;
+        }
+        T value;
+        try {
+            value = codec.decode(data);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "对象解析失败：" + spName + "/" + key, e);
+            return null;
+        }
+        synchronized (mObjectCache) {
+            if (version == mObjectVersion) {
+                mObjectCache.put(cacheKey, new DecodedObject(codec, value));
+            }
+        }
+        return value;
+    }
+
+    private static String objectKey(String spName, String key) {
+        return spName + '\u0000' + key;
+    }
+
+    private void invalidate(String spName, String key) {
+        synchronized (mObjectCache) {
+            mObjectVersion++;
+            mObjectCache.remove(objectKey(spName, key));
+        }
+    }
+
+    private void invalidateFile(String spName) {
+        String prefix = objectKey(spName, "");
+        synchronized (mObjectCache) {
+            mObjectVersion++;
+            Iterator<String> iterator = mObjectCache.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 监听文件变更，其它途径直接修改SP文件时也能让缓存失效
+     */
+    private void watch(final String spName) {
+        if (mObjectWatchers.containsKey(spName)) {
+            return;
+        }
+        SharedPreferences.OnSharedPreferenceChangeListener watcher = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+                // key为null表示文件被clear
+                if (key == null) {
+                    invalidateFile(spName);
+                } else {
+                    invalidate(spName, key);
+                }
+            }
+        };
+        if (mObjectWatchers.putIfAbsent(spName, watcher) == null) {
+            registerOnChangeListener(spName, watcher);
+        }
+    }
+
+    /**
+     * 解码缓存条目，记录编解码器，用不同编解码器读取同一个key时不命中
+     */
+    private static class DecodedObject {
+        final SPCodec<?> codec;
+        final Object value;
+
+        DecodedObject(SPCodec<?> codec, Object value) {
+            this.codec = codec;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 一批修改，提交时作为一次写入
+     */
+    public class Batch {
+        private final String mSpName;
+        private final Map<String, Object> mValues = new HashMap<>();
+        private boolean mClear;
+
+        private Batch(String spName) {
+            this.mSpName = spName;
+        }
+
+        public Batch putString(String key, String value) {
+            return set(key, value);
+        }
+
+        public Batch putInt(String key, int value) {
+            return set(key, value);
+        }
+
+        public Batch putBoolean(String key, boolean value) {
+            return set(key, value);
+        }
+
+        public Batch putFloat(String key, float value) {
+            return set(key, value);
+        }
+
+        public Batch putLong(String key, long value) {
+            return set(key, value);
+        }
+
+        public Batch putStringSet(String key, Set<String> value) {
+            return set(key, value != null ? new HashSet<>(value) : null);
+        }
+
+        public Batch remove(String key) {
+            return set(key, null);
+        }
+
+        /**
+         * 清空文件，与SharedPreferences一致，先于本批次的其它修改生效
+         */
+        public Batch clear() {
+            mClear = true;
+            return this;
+        }
+
+        private Batch set(String key, Object value) {
+            mValues.put(key, value != null ? value : REMOVED);
+            return this;
+        }
+
+        /**
+         * 异步提交，不阻塞调用线程
+         */
+        public void apply() {
+            if (mWriteDelayMillis > 0) {
+                PendingWrites pending = pendingOf(mSpName);
+                merge(pending);
+                invalidate();
+                scheduleFlush(mSpName, pending);
+                return;
+            }
+            toEditor().apply();
+            invalidate();
+        }
+
+        /**
+         * 同步提交并返回是否成功（避免在主线程调用）
+         */
+        public boolean commit() {
+            boolean success;
+            if (mWriteDelayMillis > 0) {
+                PendingWrites pending = pendingOf(mSpName);
+                merge(pending);
+                invalidate();
+                success = flush(mSpName, pending);
+            } else {
+                success = toEditor().commit();
+                invalidate();
+            }
+            return success;
+        }
+
+        /**
+         * 修改对读取可见后调用
+         */
+        private void invalidate() {
+            if (mClear) {
+                invalidateFile(mSpName);
+            }
+            for (String key : mValues.keySet()) {
+                SPUtils.this.invalidate(mSpName, key);
+            }
+        }
+
+        private void merge(PendingWrites pending) {
+            synchronized (pending) {
+                if (mClear) {
+                    pending.values.clear();
+                    pending.cleared = true;
+                    pending.clearCount++;
+                }
+                pending.values.putAll(mValues);
+            }
+        }
+
+        private Editor toEditor() {
+            Editor editor = getSp(mSpName).edit();
+            if (mClear) {
+                editor.clear();
+            }
+            for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+                put(editor, entry.getKey(), entry.getValue());
+            }
+            return editor;
+        }
+    }
+
+    /**
+     * 合并写入模式下某个SP文件尚未落盘的修改，由自身加锁保护
+     */
+    private static class PendingWrites {
+        // 落盘锁，保证同一文件的快照、提交和清理串行执行；不阻塞读写待写入值
+        final Object flushLock = new Object();
+        // value为REMOVED表示删除
+        final Map<String, Object> values = new HashMap<>();
+        // 是否需要先清空文件
+        boolean cleared;
+        // 清空次数，落盘期间再次清空时不能重置cleared
+        int clearCount;
+        // 是否已安排落盘
+        boolean scheduled;
+    }
+
+    /**
+     * 存储后端，按SP文件名打开对应的存储
+     */
+    public interface Backend {
+        /**
+         * 系统SharedPreferences，每次apply会重写整个XML文件
+         */
+        Backend PLATFORM = new Backend() {
+            @Override
+            public SharedPreferences open(Context context, String spName) {
+                // 模式默认使用MODE_PRIVATE（仅当前应用可访问）
+                return context.getSharedPreferences(spName, Context.MODE_PRIVATE);
+            }
+        };
+
+        /**
+         * 内存映射追加写存储，单次写入只追加一条记录，首次打开时自动从同名SP文件迁移
+         * 注意：只能在一个进程中使用，MyApplication只在主进程初始化SPUtils
+         */
+        Backend MMAP = new Backend() {
+            @Override
+            public SharedPreferences open(Context context, String spName) {
+                return MmapKVStore.open(context, spName);
+            }
+        };
+
+        SharedPreferences open(Context context, String spName);
     }
 }
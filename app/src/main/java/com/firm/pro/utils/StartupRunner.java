@@ -0,0 +1,336 @@
+package com.firm.pro.utils;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动任务调度器：按依赖关系并行执行初始化，缩短Application.onCreate耗时
+ * 1. 依赖完成后立即调度，互不依赖的后台任务在有界线程池中并行执行
+ * 2. 主线程任务在{@link #start()}所在的主线程依次执行，期间后台任务并行进行
+ * 3. start()在所有非延迟任务完成后返回，保证后续代码可以直接使用已初始化的工具类
+ * 4. 延迟任务在第一个Activity首帧绘制完成后开始调度，没有界面的进程在超时后调度
+ * 5. 每个任务的耗时输出到日志（Tag：StartupRunner）
+ * 6. 子进程（广告SDK等）只执行标记了{@link StartupTask#inAllProcesses()}的任务
+ * 使用示例：
+ * new StartupRunner(this)
+ *         .add(new StartupTask("SPUtils") {...})
+ *         .add(new StartupTask("OkHttpUtil") {...}.dependsOn("SPUtils"))
+ *         .start();
+ */
+public final class StartupRunner {
+    private static final String TAG = StartupRunner.class.getSimpleName();
+    // 等待首帧的最长时间，由广播、服务拉起的进程没有界面，超时后直接调度延迟任务
+    private static final long DEFERRED_TIMEOUT_MILLIS = 5000;
+
+    private final Context mContext;
+    private final boolean mMainProcess;
+    private final Map<String, StartupTask> mTasks = new LinkedHashMap<>();
+    // 当前进程不执行的任务
+    private final List<String> mSkipped = new ArrayList<>();
+    // 待在主线程执行的非延迟任务
+    private final BlockingQueue<StartupTask> mMainQueue = new LinkedBlockingQueue<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mStartDeferred = new Runnable() {
+        @Override
+        public void run() {
+            startDeferred();
+        }
+    };
+    private ThreadPoolExecutor mExecutor;
+    private CountDownLatch mCriticalLatch;
+    private volatile boolean mDeferredStarted;
+    private volatile Throwable mError;
+
+    public StartupRunner(Context context) {
+        this.mContext = context;
+        this.mMainProcess = ProcessUtils.isMainProcess(context);
+    }
+
+    /**
+     * 添加任务，子进程中只保留所有进程都要执行的任务
+     */
+    public StartupRunner add(StartupTask task) {
+        if (!mMainProcess && !task.isAllProcesses()) {
+            mSkipped.add(task.getName());
+            return this;
+        }
+        if (mTasks.put(task.getName(), task) != null) {
+            throw new IllegalArgumentException("启动任务重复：" + task.getName());
+        }
+        return this;
+    }
+
+    /**
+     * 开始执行，必须在主线程调用；所有非延迟任务完成后返回
+     * @throws IllegalStateException 依赖不存在、存在循环依赖或非延迟任务依赖延迟任务时
+     */
+    public void start() {
+        long startTime = SystemClock.uptimeMillis();
+        int criticalCount = resolve();
+        // 有界线程池：核心线程数不超过CPU核数-1，启动完成后空闲线程自动回收
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        final AtomicInteger threadIndex = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Startup-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+        mCriticalLatch = new CountDownLatch(criticalCount);
+
+        for (StartupTask task : mTasks.values()) {
+            if (!task.isDeferred() && task.pendingDependencies.get() == 0) {
+                dispatch(task);
+            }
+        }
+        // 主线程执行分配给它的任务，直到全部非延迟任务完成
+        while (mCriticalLatch.getCount() > 0 && mError == null) {
+            try {
+                StartupTask task = mMainQueue.poll(10, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    execute(task);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (mError != null) {
+            throw new IllegalStateException("启动任务失败", mError);
+        }
+        Log.i(TAG, "关键启动任务完成，耗时" + (SystemClock.uptimeMillis() - startTime) + "ms"
+                + (mMainProcess ? "" : "（子进程" + ProcessUtils.getProcessName() + "，跳过" + mSkipped + "）"));
+
+        if (criticalCount < mTasks.size()) {
+            awaitFirstFrame();
+        }
+    }
+
+    /**
+     * 第一个Activity首帧绘制完成后调度延迟任务。
+     * 主线程首次空闲可能早于首帧（如Activity还未创建），不能作为首帧完成的依据
+     */
+    private void awaitFirstFrame() {
+        final Application application = (Application) mContext.getApplicationContext();
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+                application.unregisterActivityLifecycleCallbacks(this);
+                onFirstDraw(activity.getWindow().getDecorView());
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+        mMainHandler.postDelayed(mStartDeferred, DEFERRED_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 首次onResume时DecorView通常还未attach，attach后再监听绘制
+     */
+    private void onFirstDraw(final View decorView) {
+        if (!decorView.isAttachedToWindow()) {
+            decorView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+                @Override
+                public void onViewAttachedToWindow(View v) {
+                    v.removeOnAttachStateChangeListener(this);
+                    onFirstDraw(v);
+                }
+
+                @Override
+                public void onViewDetachedFromWindow(View v) {
+                }
+            });
+            return;
+        }
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean mDrawn;
+
+            @Override
+            public void onDraw() {
+                if (mDrawn) {
+                    return;
+                }
+                mDrawn = true;
+                final ViewTreeObserver.OnDrawListener listener = this;
+                // 绘制回调中不能移除监听，下一条消息再移除
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        decorView.getViewTreeObserver().removeOnDrawListener(listener);
+                    }
+                });
+                // 排在队首，本帧提交后立即调度
+                mMainHandler.removeCallbacks(mStartDeferred);
+                mMainHandler.postAtFrontOfQueue(mStartDeferred);
+            }
+        });
+    }
+
+    /**
+     * 建立依赖关系并检查：依赖必须存在、不能有环、非延迟任务不能依赖延迟任务
+     * @return 非延迟任务数量
+     */
+    private int resolve() {
+        int criticalCount = 0;
+        for (StartupTask task : mTasks.values()) {
+            for (String name : task.getDependencies()) {
+                StartupTask dependency = mTasks.get(name);
+                if (dependency == null && mSkipped.contains(name)) {
+                    throw new IllegalStateException(task.getName() + "在所有进程执行，但依赖只在主进程执行的任务：" + name);
+                }
+                if (dependency == null) {
+                    throw new IllegalStateException(task.getName() + "依赖的任务不存在：" + name);
+                }
+                if (dependency.isDeferred() && !task.isDeferred()) {
+                    throw new IllegalStateException(task.getName() + "不能依赖延迟任务：" + name);
+                }
+                dependency.dependents.add(task);
+            }
+            task.pendingDependencies.set(task.getDependencies().size());
+            if (!task.isDeferred()) {
+                criticalCount++;
+            }
+        }
+        // 拓扑排序检查循环依赖
+        Map<StartupTask, Integer> inDegree = new LinkedHashMap<>();
+        Deque<StartupTask> ready = new ArrayDeque<>();
+        for (StartupTask task : mTasks.values()) {
+            inDegree.put(task, task.getDependencies().size());
+            if (task.getDependencies().isEmpty()) {
+                ready.add(task);
+            }
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            StartupTask task = ready.poll();
+            visited++;
+            for (StartupTask dependent : task.dependents) {
+                int degree = inDegree.get(dependent) - 1;
+                inDegree.put(dependent, degree);
+                if (degree == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (visited != mTasks.size()) {
+            List<String> cycle = new ArrayList<>();
+            for (Map.Entry<StartupTask, Integer> entry : inDegree.entrySet()) {
+                if (entry.getValue() > 0) {
+                    cycle.add(entry.getKey().getName());
+                }
+            }
+            throw new IllegalStateException("启动任务存在循环依赖：" + cycle);
+        }
+        return criticalCount;
+    }
+
+    private void startDeferred() {
+        if (mDeferredStarted) {
+            return;
+        }
+        mDeferredStarted = true;
+        for (StartupTask task : mTasks.values()) {
+            if (task.isDeferred() && task.pendingDependencies.get() == 0) {
+                dispatch(task);
+            }
+        }
+    }
+
+    private void dispatch(final StartupTask task) {
+        if (!task.dispatched.compareAndSet(false, true)) {
+            return;
+        }
+        if (!task.isMainThread()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    execute(task);
+                }
+            });
+        } else if (task.isDeferred()) {
+            // 每个延迟任务单独一条消息，不长时间占用主线程
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    execute(task);
+                }
+            });
+        } else {
+            mMainQueue.add(task);
+        }
+    }
+
+    private void execute(StartupTask task) {
+        long begin = SystemClock.uptimeMillis();
+        try {
+            task.run(mContext);
+        } catch (Throwable t) {
+            Log.e(TAG, "启动任务失败：" + task.getName(), t);
+            // 失败任务的后续任务不再执行；非延迟任务失败时start()抛出异常
+            if (!task.isDeferred()) {
+                mError = t;
+                mCriticalLatch.countDown();
+            }
+            return;
+        }
+        Log.i(TAG, task.getName() + "耗时" + (SystemClock.uptimeMillis() - begin) + "ms"
+                + "（" + Thread.currentThread().getName() + (task.isDeferred() ? "，延迟" : "") + "）");
+        for (StartupTask dependent : task.dependents) {
+            if (dependent.pendingDependencies.decrementAndGet() == 0
+                    && (!dependent.isDeferred() || mDeferredStarted)) {
+                dispatch(dependent);
+            }
+        }
+        if (!task.isDeferred()) {
+            mCriticalLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动任务，由{@link StartupRunner}按依赖关系调度
+ * 默认只在主进程、后台线程池执行，并在Application.onCreate返回前完成；
+ * 需要主线程的任务调用{@link #onMainThread()}，可以等到首帧之后的任务调用{@link #deferred()}，
+ * 广告SDK子进程也需要的任务调用{@link #inAllProcesses()}
+ * 使用示例：
+ * new StartupTask("OkHttpUtil") {
+ *     protected void run(Context context) {
+ *         OkHttpUtil.init(context);
+ *     }
+ * }.dependsOn("SPUtils")
+ */
+public abstract class StartupTask {
+    private final String mName;
+    private final List<String> mDependencies = new ArrayList<>();
+    private boolean mMainThread;
+    private boolean mDeferred;
+    private boolean mAllProcesses;
+
+    // 以下为调度状态，由StartupRunner使用
+    final List<StartupTask> dependents = new ArrayList<>();
+    final AtomicInteger pendingDependencies = new AtomicInteger();
+    final AtomicBoolean dispatched = new AtomicBoolean();
+
+    protected StartupTask(String name) {
+        this.mName = name;
+    }
+
+    protected abstract void run(Context context);
+
+    /**
+     * 声明依赖的任务，依赖全部完成后才会执行
+     */
+    public StartupTask dependsOn(String... names) {
+        Collections.addAll(mDependencies, names);
+        return this;
+    }
+
+    /**
+     * 必须在主线程执行（如部分第三方SDK的init）
+     */
+    public StartupTask onMainThread() {
+        mMainThread = true;
+        return this;
+    }
+
+    /**
+     * 非关键任务，等第一个进入resumed状态的Activity完成首次绘制后再执行；
+     * 没有界面的进程（如由广播、服务拉起）5秒后仍未绘制则直接执行
+     */
+    public StartupTask deferred() {
+        mDeferred = true;
+        return this;
+    }
+
+    /**
+     * 在所有进程中执行（默认只在主进程执行，子进程跳过）
+     */
+    public StartupTask inAllProcesses() {
+        mAllProcesses = true;
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    List<String> getDependencies() {
+        return mDependencies;
+    }
+
+    boolean isMainThread() {
+        return mMainThread;
+    }
+
+    boolean isDeferred() {
+        return mDeferred;
+    }
+
+    boolean isAllProcesses() {
+        return mAllProcesses;
+    }
+}
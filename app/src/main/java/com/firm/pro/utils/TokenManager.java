@@ -0,0 +1,111 @@
+package com.firm.pro.utils;
+
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.firm.pro.constants.AppConstants;
+
+import java.io.IOException;
+
+/**
+ * Token内存缓存及刷新
+ * token首次使用时从SP加载一次，之后读取只访问内存；user_info文件变化时自动同步。
+ * 401时多个并发请求只会触发一次刷新，其余请求等待刷新结果后直接复用新token
+ */
+class TokenManager {
+    private static final String TAG = TokenManager.class.getSimpleName();
+    // token在SP中的key
+    static final String KEY_TOKEN = "token";
+
+    private final Object mLoadLock = new Object();
+    private final Object mRefreshLock = new Object();
+    private volatile String mToken;
+    private volatile boolean mLoaded;
+    private volatile OkHttpUtil.TokenRefresher mRefresher;
+
+    // SP以弱引用持有监听器，这里必须保持强引用
+    private final SharedPreferences.OnSharedPreferenceChangeListener mChangeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+                    // key为null表示文件被clear
+                    if (key == null || KEY_TOKEN.equals(key)) {
+                        mToken = sp.getString(KEY_TOKEN, "");
+                        mLoaded = true;
+                    }
+                }
+            };
+
+    TokenManager() {
+        // 等USER_INFO在后台预加载完成后再注册监听，避免主线程等待文件读取
+        SPUtils.getInstance().awaitLoaded(AppConstants.SPFileName.USER_INFO, new Runnable() {
+            @Override
+            public void run() {
+                SPUtils.getInstance().registerOnChangeListener(AppConstants.SPFileName.USER_INFO, mChangeListener);
+            }
+        });
+    }
+
+    /**
+     * 获取当前token，除首次加载外不涉及IO和锁
+     */
+    String getToken() {
+        if (!mLoaded) {
+            synchronized (mLoadLock) {
+                if (!mLoaded) {
+                    mToken = SPUtils.getInstance().getString(AppConstants.SPFileName.USER_INFO, KEY_TOKEN, "");
+                    mLoaded = true;
+                }
+            }
+        }
+        return mToken;
+    }
+
+    /**
+     * 更新token，同时写入内存和SP
+     */
+    void setToken(String token) {
+        mToken = token;
+        mLoaded = true;
+        SPUtils.getInstance().putString(AppConstants.SPFileName.USER_INFO, KEY_TOKEN, token);
+    }
+
+    void setRefresher(OkHttpUtil.TokenRefresher refresher) {
+        mRefresher = refresher;
+    }
+
+    boolean canRefresh() {
+        return mRefresher != null;
+    }
+
+    /**
+     * 刷新token，同一时间只有一个线程执行刷新
+     * @param expiredToken 请求失败时使用的token
+     * @return 新token，刷新失败返回null
+     */
+    String refresh(String expiredToken) {
+        OkHttpUtil.TokenRefresher refresher = mRefresher;
+        if (refresher == null) {
+            return null;
+        }
+        synchronized (mRefreshLock) {
+            // 等待期间已有其他请求刷新成功，直接使用新token
+            String current = getToken();
+            if (!TextUtils.isEmpty(current) && !TextUtils.equals(current, expiredToken)) {
+                return current;
+            }
+            try {
+                String newToken = refresher.refreshToken(expiredToken);
+                if (TextUtils.isEmpty(newToken)) {
+                    return null;
+                }
+                setToken(newToken);
+                return newToken;
+            } catch (IOException e) {
+                Log.w(TAG, "refresh token failed: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+}
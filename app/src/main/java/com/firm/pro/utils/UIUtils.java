@@ -2,6 +2,12 @@ package com.firm.pro.utils;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
+import android.view.Choreographer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * UI工具类，提供主线程切换功能
@@ -9,6 +15,32 @@ import android.os.Looper;
 public class UIUtils {
     private static Handler sHandler = new Handler(Looper.getMainLooper());
 
+    // 按帧批量执行的任务队列
+    private static final Queue<Runnable> sFrameQueue = new ConcurrentLinkedQueue<>();
+    // 是否已安排下一帧执行队列，同一帧内只安排一次
+    private static final AtomicBoolean sFrameScheduled = new AtomicBoolean();
+    // 每帧执行队列任务的时间预算，超出后剩余任务留到下一帧
+    private static volatile long sFrameBudgetNanos = 4_000_000L;
+    // 主线程Choreographer，只在主线程访问
+    private static Choreographer sChoreographer;
+
+    private static final Runnable sScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (sChoreographer == null) {
+                sChoreographer = Choreographer.getInstance();
+            }
+            sChoreographer.postFrameCallback(sFrameCallback);
+        }
+    };
+
+    private static final Choreographer.FrameCallback sFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drainFrameQueue();
+        }
+    };
+
     /**
      * 在主线程执行任务
      */
@@ -21,4 +53,59 @@ public class UIUtils {
             sHandler.post(runnable);
         }
     }
+
+    /**
+     * 在下一帧开始时于主线程批量执行，适用于网络回调、进度更新等短时间内大量到达的非紧急任务。
+     * 同一帧内的任务合并为一次执行，不再各自占用一条主线程消息；
+     * 单帧执行时间超过预算时剩余任务顺延到下一帧，避免一次执行过多导致掉帧
+     */
+    public static void runOnNextFrame(Runnable runnable) {
+        sFrameQueue.add(runnable);
+        if (sFrameScheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                sScheduleFrame.run();
+            } else {
+                sHandler.post(sScheduleFrame);
+            }
+        }
+    }
+
+    /**
+     * 紧急任务，在主线程尽快执行：使用异步消息，不受界面绘制同步屏障阻塞，也不排在按帧批量的任务后面
+     */
+    public static void runOnUiThreadUrgent(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+            return;
+        }
+        Message message = Message.obtain(sHandler, runnable);
+        message.setAsynchronous(true);
+        sHandler.sendMessage(message);
+    }
+
+    /**
+     * 设置每帧执行批量任务的时间预算，默认4毫秒
+     */
+    public static void setFrameBudgetMillis(long millis) {
+        sFrameBudgetNanos = Math.max(1, millis) * 1_000_000L;
+    }
+
+    private static void drainFrameQueue() {
+        long deadline = System.nanoTime() + sFrameBudgetNanos;
+        // 每帧至少执行一个任务，保证单个耗时任务不会让队列停滞
+        Runnable task;
+        do {
+            task = sFrameQueue.poll();
+            if (task == null) {
+                break;
+            }
+            task.run();
+        } while (System.nanoTime() < deadline);
+
+        sFrameScheduled.set(false);
+        // 有剩余任务，或执行期间又有新任务加入但因标记未清除而没有安排
+        if (!sFrameQueue.isEmpty() && sFrameScheduled.compareAndSet(false, true)) {
+            sScheduleFrame.run();
+        }
+    }
 }
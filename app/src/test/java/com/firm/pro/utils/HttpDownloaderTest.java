@@ -0,0 +1,203 @@
+package com.firm.pro.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpDownloader单连接下载、分块下载及失败后续传测试
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HttpDownloaderTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    // 大于两个分块，触发分块下载
+    private static final int LARGE_SIZE = 5 * 1024 * 1024;
+
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+    private File mDir;
+    private File mTarget;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mClient = new OkHttpClient();
+        mDir = File.createTempFile("downloader-test", "");
+        assertTrue(mDir.delete() && mDir.mkdirs());
+        mTarget = new File(mDir, "file.bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void singleConnectionDownload() throws Exception {
+        byte[] content = content(100 * 1024);
+        mServer.setDispatcher(new RangeDispatcher(content, null));
+
+        assertEquals("success", download(1));
+        assertArrayEquals(content, readTarget());
+        assertFalse(new File(mTarget.getPath() + ".part").exists());
+        assertFalse(new File(mTarget.getPath() + ".part.meta").exists());
+    }
+
+    @Test
+    public void chunkedDownloadAssemblesRanges() throws Exception {
+        byte[] content = content(LARGE_SIZE);
+        RangeDispatcher dispatcher = new RangeDispatcher(content, null);
+        mServer.setDispatcher(dispatcher);
+
+        assertEquals("success", download(2));
+        assertArrayEquals(content, readTarget());
+        // HEAD探测加两个分块请求
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, dispatcher.rangeRequests);
+    }
+
+    @Test
+    public void failedChunkKeepsProgressForResume() throws Exception {
+        byte[] content = content(LARGE_SIZE);
+        AtomicBoolean failSecondChunk = new AtomicBoolean(true);
+        mServer.setDispatcher(new RangeDispatcher(content, failSecondChunk));
+
+        assertEquals("failure", download(2));
+        assertFalse(mTarget.exists());
+        assertTrue(new File(mTarget.getPath() + ".part.meta").exists());
+
+        // 服务恢复后按保存的分块进度续传：不再探测，只请求各分块剩余部分
+        failSecondChunk.set(false);
+        int requestsBefore = mServer.getRequestCount();
+        for (int i = 0; i < requestsBefore; i++) {
+            mServer.takeRequest();
+        }
+        assertEquals("success", download(2));
+        assertArrayEquals(content, readTarget());
+        int resumed = mServer.getRequestCount() - requestsBefore;
+        assertTrue(resumed > 0 && resumed <= 2);
+        for (int i = 0; i < resumed; i++) {
+            RecordedRequest request = mServer.takeRequest();
+            assertEquals("GET", request.getMethod());
+            assertEquals("\"v1\"", request.getHeader("If-Range"));
+            assertTrue(request.getHeader("Range").startsWith("bytes="));
+        }
+    }
+
+    private String download(int parallelism) throws InterruptedException {
+        final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        new HttpDownloader(mClient, mServer.url("/file.bin").toString(), mTarget, parallelism,
+                new OkHttpUtil.DownloadCallback() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        results.add("success");
+                    }
+
+                    @Override
+                    public void onFailure(String errorMsg) {
+                        results.add("failure");
+                    }
+                }, DIRECT).start();
+        return results.poll(30, TimeUnit.SECONDS);
+    }
+
+    private byte[] readTarget() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mTarget, "r");
+        try {
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + i / 7);
+        }
+        return data;
+    }
+
+    /**
+     * 支持HEAD和单段Range请求的文件服务
+     */
+    private static class RangeDispatcher extends Dispatcher {
+        private final byte[] mContent;
+        // 非空且为true时，从文件中间开始的Range请求返回500
+        private final AtomicBoolean mFailSecondChunk;
+        volatile int rangeRequests;
+
+        RangeDispatcher(byte[] content, AtomicBoolean failSecondChunk) {
+            this.mContent = content;
+            this.mFailSecondChunk = failSecondChunk;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            MockResponse response = new MockResponse()
+                    .setHeader("ETag", "\"v1\"")
+                    .setHeader("Accept-Ranges", "bytes");
+            if ("HEAD".equals(request.getMethod())) {
+                return response.setHeader("Content-Length", mContent.length);
+            }
+            String range = request.getHeader("Range");
+            if (range == null) {
+                return response.setBody(new Buffer().write(mContent));
+            }
+            synchronized (this) {
+                rangeRequests++;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds[1].isEmpty() ? mContent.length - 1 : Integer.parseInt(bounds[1]);
+            if (start > 0 && mFailSecondChunk != null && mFailSecondChunk.get()) {
+                return new MockResponse().setResponseCode(500);
+            }
+            return response.setResponseCode(206)
+                    .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + mContent.length)
+                    .setBody(new Buffer().write(mContent, start, end - start + 1));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * HttpOutbox日志恢复、发送顺序及永久失败请求的放弃策略测试
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HttpOutboxTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Gson mGson = new Gson();
+    private MockWebServer mServer;
+    private Context mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mContext = RuntimeEnvironment.getApplication();
+        deleteRecursively(new File(mContext.getFilesDir(), "http_outbox"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void pendingRequestsSurviveRestartInOrder() throws Exception {
+        // 第一个实例始终无网络，请求只写入日志
+        OkHttpClient offline = new OkHttpClient.Builder()
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        throw new IOException("offline");
+                    }
+                })
+                .build();
+        HttpOutbox first = new HttpOutbox(mContext, offline, new RequestScheduler(4, 2, 2), mGson);
+        String url = mServer.url("/events").toString();
+        for (int i = 0; i < 3; i++) {
+            first.add(url, "application/json", "{\"i\":" + i + "}", "key-" + i, ResponseParser.STRING, null, DIRECT);
+        }
+        awaitJournalLines(3);
+
+        // 模拟进程重启：新实例从日志恢复并按提交顺序发送
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody("ok"));
+        }
+        new HttpOutbox(mContext, new OkHttpClient(), new RequestScheduler(4, 2, 2), mGson);
+        for (int i = 0; i < 3; i++) {
+            RecordedRequest request = mServer.takeRequest(5, TimeUnit.SECONDS);
+            assertNotNull("未恢复第" + i + "条请求", request);
+            assertEquals("{\"i\":" + i + "}", request.getBody().readUtf8());
+            assertEquals("key-" + i, request.getHeader("Idempotency-Key"));
+        }
+    }
+
+    @Test
+    public void permanentlyFailingRequestIsDroppedAfterMaxAttempts() throws Exception {
+        final HttpOutbox outbox = new HttpOutbox(mContext, new OkHttpClient(), new RequestScheduler(4, 2, 2), mGson);
+        for (int i = 0; i < HttpOutbox.MAX_ATTEMPTS; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(503));
+        }
+        mServer.enqueue(new MockResponse().setBody("second"));
+
+        final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        String url = mServer.url("/events").toString();
+        outbox.add(url, "text/plain", "first", null, ResponseParser.STRING, new Callback(results, "first"), DIRECT);
+        outbox.add(url, "text/plain", "second", null, ResponseParser.STRING, new Callback(results, "second"), DIRECT);
+
+        for (int i = 0; i < HttpOutbox.MAX_ATTEMPTS; i++) {
+            assertEquals("first", takeRequest(outbox).getBody().readUtf8());
+        }
+        // 第一条放弃后不再阻塞队列
+        assertEquals("first:failure", results.poll(5, TimeUnit.SECONDS));
+        assertEquals("second", takeRequest(outbox).getBody().readUtf8());
+        assertEquals("second:second", results.poll(5, TimeUnit.SECONDS));
+        assertNull(mServer.takeRequest(200, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 等待下一次请求，期间跳过退避等待
+     */
+    private RecordedRequest takeRequest(HttpOutbox outbox) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            RecordedRequest request = mServer.takeRequest(50, TimeUnit.MILLISECONDS);
+            if (request != null) {
+                return request;
+            }
+            outbox.retryNow();
+        }
+        throw new AssertionError("请求超时");
+    }
+
+    /**
+     * 加入请求是异步写日志的，等待日志写入指定行数
+     */
+    private void awaitJournalLines(int lines) throws Exception {
+        File journal = new File(new File(mContext.getFilesDir(), "http_outbox"), "journal");
+        for (int i = 0; i < 100; i++) {
+            if (journal.exists() && countLines(journal) >= lines) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("日志未写入");
+    }
+
+    private static int countLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            int count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class Callback implements OkHttpUtil.ObjectCallback<String> {
+        private final BlockingQueue<String> mResults;
+        private final String mName;
+
+        Callback(BlockingQueue<String> results, String name) {
+            this.mResults = results;
+            this.mName = name;
+        }
+
+        @Override
+        public void onSuccess(String data) {
+            mResults.add(mName + ":" + data);
+        }
+
+        @Override
+        public void onFailure(String errorMsg) {
+            mResults.add(mName + ":failure");
+        }
+    }
+}
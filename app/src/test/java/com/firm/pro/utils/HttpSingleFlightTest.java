@@ -0,0 +1,121 @@
+package com.firm.pro.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpSingleFlight请求合并及取消测试
+ */
+public class HttpSingleFlightTest {
+    private MockWebServer mServer;
+    private HttpSingleFlight mSingleFlight;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mSingleFlight = new HttpSingleFlight(new OkHttpClient(), new RequestScheduler(4, 2, 2));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void identicalRequestsShareOneCall() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("shared").setBodyDelay(200, TimeUnit.MILLISECONDS));
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        Request request = new Request.Builder().url(mServer.url("/feed")).build();
+        for (int i = 0; i < 3; i++) {
+            mSingleFlight.enqueue(request, ResponseParser.STRING, new Recorder(results));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("200:shared", results.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void differentUrlsAreNotMerged() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("a"));
+        mServer.enqueue(new MockResponse().setBody("b"));
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        mSingleFlight.enqueue(new Request.Builder().url(mServer.url("/a")).build(), ResponseParser.STRING, new Recorder(results));
+        mSingleFlight.enqueue(new Request.Builder().url(mServer.url("/b")).build(), ResponseParser.STRING, new Recorder(results));
+
+        assertTrue(results.poll(5, TimeUnit.SECONDS).startsWith("200:"));
+        assertTrue(results.poll(5, TimeUnit.SECONDS).startsWith("200:"));
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void cancelingOneSubscriberKeepsOthers() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("shared").setBodyDelay(200, TimeUnit.MILLISECONDS));
+        BlockingQueue<String> canceled = new LinkedBlockingQueue<>();
+        BlockingQueue<String> kept = new LinkedBlockingQueue<>();
+        Request request = new Request.Builder().url(mServer.url("/feed")).build();
+        OkHttpUtil.RequestHandle handle = mSingleFlight.enqueue(request, ResponseParser.STRING, new Recorder(canceled));
+        mSingleFlight.enqueue(request, ResponseParser.STRING, new Recorder(kept));
+        handle.cancel();
+
+        assertEquals("200:shared", kept.poll(5, TimeUnit.SECONDS));
+        assertNull(canceled.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(handle.isCanceled());
+    }
+
+    @Test
+    public void cancelingAllSubscribersCancelsCall() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("fresh");
+            }
+        });
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        Request request = new Request.Builder().url(mServer.url("/feed")).build();
+        mSingleFlight.enqueue(request, ResponseParser.STRING, new Recorder(results)).cancel();
+        mSingleFlight.enqueue(request, ResponseParser.STRING, new Recorder(results)).cancel();
+
+        // 原请求已取消并移出在途表，之后的相同请求重新发起，不会加入已取消的请求而失败
+        mSingleFlight.enqueue(request, ResponseParser.STRING, new Recorder(results));
+        assertEquals("200:fresh", results.poll(5, TimeUnit.SECONDS));
+        assertNull(results.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static class Recorder implements HttpSingleFlight.Listener<String> {
+        private final BlockingQueue<String> mResults;
+
+        Recorder(BlockingQueue<String> results) {
+            this.mResults = results;
+        }
+
+        @Override
+        public void onResponse(int code, String result) {
+            mResults.add(code + ":" + result);
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            mResults.add("failure");
+        }
+    }
+}
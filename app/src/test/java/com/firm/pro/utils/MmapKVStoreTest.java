@@ -0,0 +1,222 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * MmapKVStore读写、损坏恢复、压缩、清空及迁移测试
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MmapKVStoreTest {
+    private File mDir;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("mmkv-test", "");
+        assertTrue(mDir.delete() && mDir.mkdirs());
+        mFile = new File(mDir, "test.kv");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        MmapKVStore store = new MmapKVStore(mFile);
+        assertTrue(store.edit()
+                .putString("string", "中文value")
+                .putInt("int", 42)
+                .putLong("long", Long.MAX_VALUE)
+                .putFloat("float", 1.5f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", new HashSet<>(Arrays.asList("a", "b")))
+                .commit());
+        store.edit().putInt("int", 43).remove("boolean").apply();
+
+        MmapKVStore reopened = new MmapKVStore(mFile);
+        assertEquals("中文value", reopened.getString("string", null));
+        assertEquals(43, reopened.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, reopened.getLong("long", 0));
+        assertEquals(1.5f, reopened.getFloat("float", 0), 0);
+        assertFalse(reopened.contains("boolean"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), reopened.getStringSet("set", null));
+        assertEquals(5, reopened.getAll().size());
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        MmapKVStore store = new MmapKVStore(mFile);
+        store.edit().putString("first", "1").commit();
+        int firstEnd = usedLength();
+        store.edit().putString("second", "2").commit();
+        int secondEnd = usedLength();
+
+        // 模拟最后一条记录只写了一半：记录内容损坏，头部长度已更新
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(secondEnd - 1);
+            int last = raf.read();
+            raf.seek(secondEnd - 1);
+            raf.write(last ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        MmapKVStore reopened = new MmapKVStore(mFile);
+        assertEquals("1", reopened.getString("first", null));
+        assertFalse(reopened.contains("second"));
+        assertEquals(firstEnd, usedLength());
+
+        // 截断后继续追加，再次加载数据完整
+        reopened.edit().putString("third", "3").commit();
+        MmapKVStore again = new MmapKVStore(mFile);
+        assertEquals("1", again.getString("first", null));
+        assertEquals("3", again.getString("third", null));
+        assertFalse(again.contains("second"));
+    }
+
+    @Test
+    public void compactionKeepsConcurrentAppends() throws Exception {
+        final MmapKVStore store = new MmapKVStore(mFile);
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        final String large = new String(chars);
+        final int writers = 4;
+        final int perWriter = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        // 同一个key反复覆盖，产生大量无效记录触发压缩，同时其它线程持续追加新key
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < 400; i++) {
+                        store.edit().putString("hot", large + i).commit();
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        }));
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perWriter; i++) {
+                            store.edit().putInt("w" + writer + "-" + i, i).commit();
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        MmapKVStore.awaitCompaction();
+        assertNull(error.get());
+
+        assertEquals(large + 399, store.getString("hot", null));
+        assertEquals(writers * perWriter + 1, store.getAll().size());
+        MmapKVStore reopened = new MmapKVStore(mFile);
+        assertEquals(store.getAll(), reopened.getAll());
+        // 压缩后只保留最新值，远小于400条1KB记录
+        assertTrue("文件未压缩：" + mFile.length(), mFile.length() < 200 * 1024);
+    }
+
+    @Test
+    public void clearRemovesPreviousValues() throws IOException {
+        MmapKVStore store = new MmapKVStore(mFile);
+        store.edit().putString("a", "1").putString("b", "2").commit();
+        final List<String> changed = new ArrayList<>();
+        SharedPreferences.OnSharedPreferenceChangeListener listener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                changed.add(key);
+            }
+        };
+        store.registerOnSharedPreferenceChangeListener(listener);
+
+        // 与SharedPreferences一致，clear先于同一批次的其它修改生效
+        store.edit().putString("c", "3").clear().commit();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertFalse(store.contains("a"));
+        assertEquals("3", store.getString("c", null));
+        assertEquals(Arrays.asList(null, "c"), changed);
+
+        MmapKVStore reopened = new MmapKVStore(mFile);
+        assertEquals(1, reopened.getAll().size());
+        assertEquals("3", reopened.getString("c", null));
+    }
+
+    @Test
+    public void migratesFromSharedPreferences() {
+        Context context = RuntimeEnvironment.getApplication();
+        String name = "mmkv_migrate_" + System.nanoTime();
+        context.getSharedPreferences(name, Context.MODE_PRIVATE).edit()
+                .putString("token", "abc")
+                .putInt("count", 7)
+                .commit();
+
+        SharedPreferences store = MmapKVStore.open(context, name);
+        assertEquals("abc", store.getString("token", null));
+        assertEquals(7, store.getInt("count", 0));
+        assertTrue(context.getSharedPreferences(name, Context.MODE_PRIVATE).getAll().isEmpty());
+    }
+
+    /**
+     * 文件头部记录的已用长度
+     */
+    private int usedLength() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            raf.seek(4);
+            return raf.readInt();
+        } finally {
+            raf.close();
+        }
+    }
+}
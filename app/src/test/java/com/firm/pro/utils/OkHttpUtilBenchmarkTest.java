@@ -0,0 +1,631 @@
+package com.firm.pro.utils;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * OkHttpUtil吞吐量及延迟基准测试，对本地MockWebServer发起请求，统计每秒请求数、延迟百分位、
+ * 单请求内存分配和线程数，与基线文件对比，超出容差时测试失败。
+ * 默认的单元测试不包含本测试，由benchTest任务执行（./gradlew check时会执行），
+ * 也可传入-Pbench.run单独执行（该模式下只执行基准测试）。
+ * 依赖unitTests.returnDefaultValues（仅-Pbench.run时开启）：Looper均为null，回调直接在OkHttp工作线程执行。
+ * 参数通过gradle属性传入，例如：
+ * ./gradlew benchTest -Pbench.concurrency=1,16 -Pbench.payloadBytes=1024
+ * 更新基线：追加 -Pbench.updateBaseline=true；跳过：-Pbench.skip=true
+ */
+@RunWith(Parameterized.class)
+public class OkHttpUtilBenchmarkTest {
+    private static final int REQUESTS = Integer.getInteger("bench.requests", 500);
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 100);
+    // 相对基线的容差，0.3表示吞吐量下降或延迟、分配增加超过30%视为回退
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("bench.tolerance", "0.3"));
+    // 线程数允许比基线多出的数量
+    private static final int THREAD_SLACK = Integer.getInteger("bench.threadSlack", 2);
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static MockWebServer sServer;
+    private static File sTempDir;
+    private static final Properties sResults = new Properties();
+    private static final List<String> sRegressions = Collections.synchronizedList(new ArrayList<String>());
+
+    private final Scenario scenario;
+    private final int concurrency;
+    private final int payloadBytes;
+
+    public OkHttpUtilBenchmarkTest(Scenario scenario, int concurrency, int payloadBytes) {
+        this.scenario = scenario;
+        this.concurrency = concurrency;
+        this.payloadBytes = payloadBytes;
+    }
+
+    @Parameterized.Parameters(name = "{0} c={1} payload={2}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> params = new ArrayList<>();
+        for (Scenario scenario : Scenario.values()) {
+            for (int concurrency : intList(System.getProperty("bench.concurrency", "1,8"))) {
+                for (int payload : intList(System.getProperty("bench.payloadBytes", "256,8192"))) {
+                    params.add(new Object[]{scenario, concurrency, payload});
+                }
+            }
+        }
+        return params;
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Assume.assumeFalse(Boolean.getBoolean("bench.skip"));
+        sTempDir = File.createTempFile("okhttp-bench", "");
+        assertTrue(sTempDir.delete() && sTempDir.mkdirs());
+
+        sServer = new MockWebServer();
+        sServer.setServerSocketFactory(new NoDelayServerSocketFactory());
+        sServer.setDispatcher(new Dispatcher() {
+            private final Map<Integer, String> mBodies = new ConcurrentHashMap<>();
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String size = request.getRequestUrl().queryParameter("size");
+                int payload = size != null ? Integer.parseInt(size) : 0;
+                String body = mBodies.get(payload);
+                if (body == null) {
+                    body = payloadJson(payload);
+                    mBodies.put(payload, body);
+                }
+                return new MockResponse()
+                        .setHeader("Content-Type", "application/json; charset=utf-8")
+                        .setHeader("Cache-Control", "no-store")
+                        .setBody(body);
+            }
+        });
+        sServer.start();
+
+        TestContext context = new TestContext(sTempDir);
+        SPUtils.init(context);
+        OkHttpUtil.init(context);
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        if (sServer == null) {
+            return;
+        }
+        sServer.shutdown();
+        writeResults();
+        if (!sRegressions.isEmpty()) {
+            StringBuilder sb = new StringBuilder("性能回退：\n");
+            for (String regression : sRegressions) {
+                sb.append(regression).append('\n');
+            }
+            fail(sb.toString());
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        run(WARMUP);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        long allocatedBefore = allocatedBytes(threads);
+        long start = System.nanoTime();
+        Run run = run(REQUESTS);
+        long elapsedNanos = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes(threads);
+        int peakThreads = threads.getPeakThreadCount() - threadsBefore;
+
+        assertEquals("失败请求数", 0, run.failures.get());
+        long[] latencies = run.latencies.clone();
+        Arrays.sort(latencies);
+        Map<String, Double> metrics = new TreeMap<>();
+        metrics.put("rps", REQUESTS / (elapsedNanos / 1e9));
+        metrics.put("p50Ms", percentile(latencies, 0.50) / 1e6);
+        metrics.put("p95Ms", percentile(latencies, 0.95) / 1e6);
+        metrics.put("p99Ms", percentile(latencies, 0.99) / 1e6);
+        // 测量期间退出的线程不再计入总量，差值可能为负
+        metrics.put("allocBytesPerRequest", (double) Math.max(0, allocatedAfter - allocatedBefore) / REQUESTS);
+        metrics.put("extraThreads", (double) Math.max(0, peakThreads));
+
+        String prefix = scenario.name().toLowerCase(Locale.US) + ".c" + concurrency + ".p" + payloadBytes + ".";
+        System.out.println(String.format(Locale.US,
+                "%-40s rps=%.0f p50=%.2fms p95=%.2fms p99=%.2fms alloc=%.0fB/req threads=+%.0f",
+                prefix, metrics.get("rps"), metrics.get("p50Ms"), metrics.get("p95Ms"), metrics.get("p99Ms"),
+                metrics.get("allocBytesPerRequest"), metrics.get("extraThreads")));
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            sResults.setProperty(prefix + entry.getKey(), String.format(Locale.US, "%.2f", entry.getValue()));
+        }
+        compareWithBaseline(prefix, metrics);
+    }
+
+    /**
+     * 闭环压测：最多concurrency个请求同时进行，一个完成后再发下一个
+     */
+    private Run run(int count) throws InterruptedException {
+        final Run run = new Run(count);
+        final Semaphore permits = new Semaphore(concurrency);
+        final CountDownLatch done = new CountDownLatch(count);
+        String baseUrl = sServer.url("/bench").newBuilder()
+                .addQueryParameter("size", String.valueOf(payloadBytes))
+                .build()
+                .toString();
+        String requestJson = payloadJson(payloadBytes);
+        for (int i = 0; i < count; i++) {
+            permits.acquire();
+            final int index = i;
+            final long start = System.nanoTime();
+            Completion completion = new Completion() {
+                @Override
+                public void complete(boolean success) {
+                    run.latencies[index] = System.nanoTime() - start;
+                    if (!success) {
+                        run.failures.incrementAndGet();
+                    }
+                    permits.release();
+                    done.countDown();
+                }
+            };
+            // 每个请求参数不同，避免GET请求被合并
+            scenario.issue(baseUrl + "&i=" + i, requestJson, completion);
+        }
+        assertTrue("请求超时", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return run;
+    }
+
+    private void compareWithBaseline(String prefix, Map<String, Double> metrics) throws IOException {
+        Properties baseline = loadBaseline();
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            String key = prefix + entry.getKey();
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                continue;
+            }
+            double base = Double.parseDouble(expected);
+            double actual = entry.getValue();
+            boolean regressed;
+            if ("rps".equals(entry.getKey())) {
+                regressed = actual < base * (1 - TOLERANCE);
+            } else if ("extraThreads".equals(entry.getKey())) {
+                regressed = actual > base + THREAD_SLACK;
+            } else {
+                regressed = actual > base * (1 + TOLERANCE);
+            }
+            if (regressed) {
+                sRegressions.add(String.format(Locale.US, "%s 基线=%.2f 实测=%.2f", key, base, actual));
+            }
+        }
+    }
+
+    private static Properties sBaseline;
+
+    private static synchronized Properties loadBaseline() throws IOException {
+        if (sBaseline == null) {
+            sBaseline = new Properties();
+            String path = System.getProperty("bench.baselineFile");
+            if (path != null && new File(path).exists()) {
+                InputStream in = new FileInputStream(path);
+                try {
+                    sBaseline.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return sBaseline;
+    }
+
+    /**
+     * 结果写入输出目录，指定bench.updateBaseline时同时覆盖基线文件
+     */
+    private static void writeResults() throws IOException {
+        String outputDir = System.getProperty("bench.outputDir");
+        if (outputDir != null) {
+            File dir = new File(outputDir);
+            if (dir.exists() || dir.mkdirs()) {
+                store(new File(dir, "okhttputil-benchmark.properties"));
+            }
+        }
+        String baselineFile = System.getProperty("bench.baselineFile");
+        if (Boolean.getBoolean("bench.updateBaseline") && baselineFile != null) {
+            store(new File(baselineFile));
+            sRegressions.clear();
+        }
+    }
+
+    private static void store(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            sResults.store(out, "OkHttpUtilBenchmarkTest results, requests=" + REQUESTS);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 所有存活线程（不含MockWebServer线程）累计分配的字节数
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null || info.getThreadName().startsWith("MockWebServer")) {
+                continue;
+            }
+            long bytes = sunThreads.getThreadAllocatedBytes(info.getThreadId());
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static List<Integer> intList(String value) {
+        List<Integer> result = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                result.add(Integer.parseInt(item.trim()));
+            }
+        }
+        return result;
+    }
+
+    private static String payloadJson(int payloadBytes) {
+        StringBuilder sb = new StringBuilder(payloadBytes + 32);
+        sb.append("{\"code\":200,\"data\":\"");
+        for (int i = 0; i < payloadBytes; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.append("\"}").toString();
+    }
+
+    /**
+     * 压测场景
+     */
+    enum Scenario {
+        GET_STRING {
+            @Override
+            void issue(String url, String json, final Completion completion) {
+                OkHttpUtil.getInstance().get(url, null, OkHttpUtil.CachePolicy.NETWORK_ONLY, new OkHttpUtil.HttpCallback() {
+                    @Override
+                    public void onSuccess(String response) {
+                        completion.complete(true);
+                    }
+
+                    @Override
+                    public void onFailure(String errorMsg) {
+                        completion.complete(false);
+                    }
+                });
+            }
+        },
+        GET_TYPED {
+            @Override
+            void issue(String url, String json, final Completion completion) {
+                OkHttpUtil.getInstance().get(url, null, OkHttpUtil.CachePolicy.NETWORK_ONLY,
+                        new TypeToken<BenchResponse>() {
+                        }, new OkHttpUtil.ObjectCallback<BenchResponse>() {
+                            @Override
+                            public void onSuccess(BenchResponse data) {
+                                completion.complete(data != null && data.code == 200);
+                            }
+
+                            @Override
+                            public void onFailure(String errorMsg) {
+                                completion.complete(false);
+                            }
+                        });
+            }
+        },
+        POST_JSON {
+            @Override
+            void issue(String url, String json, final Completion completion) {
+                OkHttpUtil.getInstance().postJson(url, json, BenchResponse.class, new OkHttpUtil.ObjectCallback<BenchResponse>() {
+                    @Override
+                    public void onSuccess(BenchResponse data) {
+                        completion.complete(data != null && data.code == 200);
+                    }
+
+                    @Override
+                    public void onFailure(String errorMsg) {
+                        completion.complete(false);
+                    }
+                });
+            }
+        };
+
+        abstract void issue(String url, String json, Completion completion);
+    }
+
+    interface Completion {
+        void complete(boolean success);
+    }
+
+    static class BenchResponse {
+        int code;
+        String data;
+    }
+
+    private static class Run {
+        final long[] latencies;
+        final AtomicInteger failures = new AtomicInteger();
+
+        Run(int count) {
+            this.latencies = new long[count];
+        }
+    }
+
+    /**
+     * 提供缓存目录和内存SharedPreferences的Context
+     */
+    /**
+     * 接受的连接开启TCP_NODELAY。MockWebServer默认不开启，响应头和响应体分两次写出时，
+     * 第二次写要等客户端的延迟确认（Linux回环约40ms），测出的延迟就只反映这个等待
+     */
+    private static class NoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class TestContext extends ContextWrapper {
+        private final File mDir;
+        private final Map<String, SharedPreferences> mPreferences = new HashMap<>();
+
+        TestContext(File dir) {
+            super(null);
+            this.mDir = dir;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getCacheDir() {
+            return new File(mDir, "cache");
+        }
+
+        @Override
+        public File getFilesDir() {
+            return new File(mDir, "files");
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            return null;
+        }
+
+        @Override
+        public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+            SharedPreferences sp = mPreferences.get(name);
+            if (sp == null) {
+                sp = new InMemoryPreferences();
+                mPreferences.put(name, sp);
+            }
+            return sp;
+        }
+    }
+
+    /**
+     * 内存实现的SharedPreferences，只用于测试
+     */
+    private static class InMemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> mValues = new ConcurrentHashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(mValues);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (String) value : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            Object value = mValues.get(key);
+            return value != null ? (Set<String>) value : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Integer) value : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Long) value : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Float) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new InMemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private class InMemoryEditor implements Editor {
+            private final Map<String, Object> mPending = new HashMap<>();
+            private final Set<String> mRemoved = new HashSet<>();
+            private boolean mClear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values != null ? new HashSet<>(values) : null);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                mRemoved.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                mClear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                if (mClear) {
+                    mValues.clear();
+                }
+                for (String key : mRemoved) {
+                    mValues.remove(key);
+                }
+                mValues.putAll(mPending);
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+
+            private Editor put(String key, Object value) {
+                if (value == null) {
+                    mRemoved.add(key);
+                } else {
+                    mPending.put(key, value);
+                }
+                return this;
+            }
+        }
+    }
+}
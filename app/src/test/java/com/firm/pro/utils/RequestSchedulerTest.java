@@ -0,0 +1,170 @@
+package com.firm.pro.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RequestScheduler优先级、并发名额及重试退避测试
+ */
+public class RequestSchedulerTest {
+    private MockWebServer mServer;
+    private RequestScheduler mScheduler;
+    private OkHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        // 每个优先级只有一个名额，便于观察排队
+        mScheduler = new RequestScheduler(1, 1, 1);
+        RetryPolicy policy = new RetryPolicy.Builder().maxRetries(1).failureThreshold(0).build();
+        mClient = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(policy, mScheduler))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void retryBackoffReleasesSlot() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            private boolean mFirst = true;
+
+            @Override
+            public synchronized MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/retry") && mFirst) {
+                    mFirst = false;
+                    return new MockResponse().setResponseCode(503).setHeader("Retry-After", "1");
+                }
+                return new MockResponse().setBody(request.getPath());
+            }
+        });
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        mScheduler.enqueue(newCall("/retry"), new Recorder(results));
+        // 等第一次请求失败进入退避
+        assertEquals("/retry", mServer.takeRequest(5, TimeUnit.SECONDS).getPath());
+        mScheduler.enqueue(newCall("/other"), new Recorder(results));
+
+        // 退避期间让出名额，后提交的请求先完成
+        assertEquals("/other", results.poll(900, TimeUnit.MILLISECONDS));
+        assertEquals("/retry", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelEndsBackoff() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "20"));
+        mServer.enqueue(new MockResponse().setBody("/next"));
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        Call call = newCall("/retry");
+        mScheduler.enqueue(call, new Recorder(results));
+        mServer.takeRequest(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        call.cancel();
+        assertEquals("failure", results.poll(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+        // 名额已归还，同一优先级的后续请求照常执行
+        mScheduler.enqueue(newCall("/next"), new Recorder(results));
+        assertEquals("/next", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void higherPriorityStartsFirst() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse().setBody(request.getPath());
+                if (request.getPath().equals("/slow")) {
+                    response.setBodyDelay(300, TimeUnit.MILLISECONDS);
+                }
+                return response;
+            }
+        });
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        // 先占满后台优先级的名额，其余后台请求排队，交互请求不受影响
+        mScheduler.enqueue(newCall("/slow", OkHttpUtil.Priority.BACKGROUND), new Recorder(results));
+        mScheduler.enqueue(newCall("/background", OkHttpUtil.Priority.BACKGROUND), new Recorder(results));
+        mScheduler.enqueue(newCall("/interactive", OkHttpUtil.Priority.INTERACTIVE), new Recorder(results));
+
+        assertEquals("/interactive", results.poll(5, TimeUnit.SECONDS));
+        assertEquals("/slow", results.poll(5, TimeUnit.SECONDS));
+        assertEquals("/background", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void backgroundDropsQueuedPrefetch() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(request.getPath())
+                        .setBodyDelay(300, TimeUnit.MILLISECONDS);
+            }
+        });
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        mScheduler.enqueue(newCall("/running", OkHttpUtil.Priority.PREFETCH), new Recorder(results));
+        mScheduler.enqueue(newCall("/queued", OkHttpUtil.Priority.PREFETCH), new Recorder(results));
+        mScheduler.setAppInBackground(true);
+
+        // 排队中的预取请求立即失败，已开始的请求正常完成
+        assertEquals("failure", results.poll(5, TimeUnit.SECONDS));
+        assertEquals("/running", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    private Call newCall(String path) {
+        return newCall(path, OkHttpUtil.Priority.INTERACTIVE);
+    }
+
+    private Call newCall(String path, OkHttpUtil.Priority priority) {
+        Request request = new Request.Builder()
+                .url(mServer.url(path))
+                .tag(OkHttpUtil.Priority.class, priority)
+                .build();
+        return mClient.newCall(request);
+    }
+
+    private static class Recorder implements Callback {
+        private final BlockingQueue<String> mResults;
+
+        Recorder(BlockingQueue<String> results) {
+            this.mResults = results;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            mResults.add("failure");
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            try {
+                mResults.add(response.body().string());
+            } finally {
+                response.close();
+            }
+        }
+    }
+}